@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+// Read-only tier for the words evicted from the Trie, sorted so the words under a prefix form a range
+// The words sit back to back in one char array with their IDs and counts in parallel int arrays,
+// so an evicted word costs a few bytes beyond its characters instead of a chain of nodes.
+// Adding words builds a new instance, so readers never see one change. A word moved back into the
+// Trie is only marked removed, since copying the tier for each would hold the writer up; the marks
+// are dropped by copying once they make up an eighth of the tier, or when words are next added.
+// A reader may still see a word the writer has just marked, but by then the Trie holds it again
+// under the same ID, and a lookup keeps each ID once
+class ColdWords {
+    static final ColdWords EMPTY = new ColdWords(new char[0], new int[1], new int[0], new int[0], new int[0]);
+    private static final int COMPACT_RATIO = 8; // Copies the tier once 1/8 of it is marked removed
+
+    private final char[] chars;
+    private final int[] starts; // Word i is chars[starts[i]] up to chars[starts[i + 1] - 1]
+    private final int[] ids;
+    private final int[] frequencies;
+    private final int[] confirmed;
+    private final long[] removed; // Bit i set once word i is back in the Trie, written by the writer only
+    private int removedCount = 0;
+
+    private ColdWords(char[] chars, int[] starts, int[] ids, int[] frequencies, int[] confirmed) {
+        this.chars = chars;
+        this.starts = starts;
+        this.ids = ids;
+        this.frequencies = frequencies;
+        this.confirmed = confirmed;
+        this.removed = new long[(ids.length + 63) >>> 6];
+    }
+
+    // Lookup methods
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Entries, including words marked removed; indexes run below this
+    public int size() {
+        return ids.length;
+    }
+
+    // Words in the tier, not counting those marked removed
+    public int wordCount() {
+        return ids.length - removedCount;
+    }
+
+    // Whether word i has been moved back into the Trie
+    public boolean isRemoved(int i) {
+        return (removed[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public String word(int i) {
+        return new String(chars, starts[i], starts[i + 1] - starts[i]);
+    }
+
+    public int length(int i) {
+        return starts[i + 1] - starts[i];
+    }
+
+    public char charAt(int i, int k) {
+        return chars[starts[i] + k];
+    }
+
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public int frequency(int i) {
+        return frequencies[i];
+    }
+
+    public int confirmed(int i) {
+        return confirmed[i];
+    }
+
+    // Returns the index of a word, or -1 if it is not here
+    public int indexOf(String word) {
+        int i = from(word);
+        return i < size() && compare(i, word) == 0 && !isRemoved(i) ? i : -1;
+    }
+
+    // Returns the index of the first word not ordered before the prefix
+    public int from(CharSequence prefix) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Returns the index just past the words starting with the prefix, given from(prefix)
+    public int to(CharSequence prefix, int from) {
+        int low = from;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startsWith(mid, prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Orders word i against a string the same way String.compareTo does
+    private int compare(int i, CharSequence s) {
+        int start = starts[i];
+        int length = starts[i + 1] - start;
+        int common = Math.min(length, s.length());
+        for (int j = 0; j < common; j++) {
+            char c = chars[start + j];
+            if (c != s.charAt(j)) {
+                return c - s.charAt(j);
+            }
+        }
+        return length - s.length();
+    }
+
+    private boolean startsWith(int i, CharSequence prefix) {
+        int start = starts[i];
+        if (starts[i + 1] - start < prefix.length()) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length(); j++) {
+            if (chars[start + j] != prefix.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Lookup methods
+
+    // Marks word i removed, for a word moved back into the Trie
+    // Returns this, or a copy without the removed words once they make up enough of the tier
+    public ColdWords without(int i) {
+        removed[i >>> 6] |= 1L << i;
+        removedCount++;
+        return removedCount * COMPACT_RATIO >= size() ? with(new String[0], new int[0], new int[0], new int[0]) : this;
+    }
+
+    // Returns a copy holding these words as well, where a word already here takes the new ID and counts
+    // Words marked removed are left out of the copy
+    public ColdWords with(String[] words, int[] wordIds, int[] wordFrequencies, int[] wordConfirmed) {
+        Integer[] order = new Integer[words.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> words[a].compareTo(words[b]));
+
+        int capacity = size() + words.length;
+        int charCount = chars.length;
+        for (String word : words) {
+            charCount += word.length();
+        }
+        char[] mergedChars = new char[charCount];
+        int[] mergedStarts = new int[capacity + 1];
+        int[] mergedIds = new int[capacity];
+        int[] mergedFrequencies = new int[capacity];
+        int[] mergedConfirmed = new int[capacity];
+
+        // Merge the two sorted runs, like the merge step of merge sort
+        int size = 0;
+        int at = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size() || j < order.length) {
+            int c = i == size() ? 1 : j == order.length ? -1 : compare(i, words[order[j]]);
+            if (c < 0 && isRemoved(i)) {
+                i++;
+                continue;
+            }
+            if (c < 0) {
+                int length = starts[i + 1] - starts[i];
+                System.arraycopy(chars, starts[i], mergedChars, at, length);
+                mergedIds[size] = ids[i];
+                mergedFrequencies[size] = frequencies[i];
+                mergedConfirmed[size] = confirmed[i];
+                at += length;
+                i++;
+            } else {
+                int k = order[j];
+                words[k].getChars(0, words[k].length(), mergedChars, at);
+                mergedIds[size] = wordIds[k];
+                mergedFrequencies[size] = wordFrequencies[k];
+                mergedConfirmed[size] = wordConfirmed[k];
+                at += words[k].length();
+                j++;
+                if (c == 0) {
+                    i++; // Replaced by the new entry
+                }
+            }
+            mergedStarts[++size] = at;
+        }
+        return new ColdWords(Arrays.copyOf(mergedChars, at), Arrays.copyOf(mergedStarts, size + 1),
+                Arrays.copyOf(mergedIds, size), Arrays.copyOf(mergedFrequencies, size),
+                Arrays.copyOf(mergedConfirmed, size));
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of ColdWords Class
@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Loads an old message file into a Trie and NGramModel in parallel
+// The file is cut into chunks at word boundaries, each chunk is memory-mapped and tokenized by a
+// fork-join worker into its own word counts and n-grams, and the shards are merged in file order.
+// The file is read as UTF-8 and split into words by TextNormalizer, ASCII bytes through its table
+// and longer sequences decoded first; a word with characters outside ASCII is then brought into
+// the form TextNormalizer.word gives it.
+// The merge adds the n-grams that span two chunks, so the word chain runs through the whole file
+// across lines, exactly like a line-by-line pass.
+class CorpusIngester {
+    // Inner Classes of CorpusIngester
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Shard inner class to count the words and n-grams of one chunk
+    @SuppressWarnings("serial") // Forked, never serialized
+    private static class Shard extends RecursiveAction {
+       private final FileChannel channel;
+       private final long start;
+       private final long end;
+
+       private ByteBuffer bytes;
+       private char[] token = new char[64]; // The word being read, folded
+       private int[] table = new int[64]; // Local ID + 1 by hash of the word, 0 if empty
+       private char[] chars = new char[1024]; // The local words back to back
+       private int charCount = 0;
+       private int[] wordStarts = new int[32]; // Offset of each local word in chars
+       private int[] wordLengths = new int[32];
+       private int[] counts = new int[32]; // Occurrences of each local word
+       private int wordCount = 0;
+       private final NGramModel ngrams = new NGramModel(); // Over local IDs
+       private final int[] first = {-1, -1}; // Local IDs of the first two tokens
+       private int previous = -1; // Local IDs of the last two tokens
+       private int beforePrevious = -1;
+       private IOException failure;
+
+       Shard(FileChannel channel, long start, long end) {
+          this.channel = channel;
+          this.start = start;
+          this.end = end;
+       }
+
+       @Override
+       protected void compute() {
+          try {
+             bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+          } catch (IOException e) {
+             failure = e;
+             return;
+          }
+          int limit = bytes.limit();
+          int i = 0;
+          while (i < limit) {
+             // Read up to the end of the next run of word characters, folding them into token
+             int length = 0;
+             boolean ascii = true; // Whether the token is all ASCII, so already in its final form
+             while (i < limit) {
+                byte b = bytes.get(i);
+                int c;
+                if (b >= 0) {
+                   c = TextNormalizer.fold((char) b);
+                   i++;
+                } else {
+                   int sequence = sequenceLength(b);
+                   int codePoint = decode(bytes, i, sequence);
+                   c = codePoint >= 0 ? TextNormalizer.fold(codePoint) : 0;
+                   i += codePoint >= 0 ? sequence : 1; // Past a malformed byte, the next may start a sequence
+                }
+                if (c != 0) {
+                   if (length + 2 > token.length) {
+                      token = Arrays.copyOf(token, token.length * 2);
+                   }
+                   length += Character.toChars(c, token, length);
+                   ascii &= c < 0x80;
+                } else if (length > 0) {
+                   break;
+                }
+             }
+             // Apostrophes at either end are quotes, not part of the word
+             int first = 0;
+             while (first < length && token[first] == TextNormalizer.APOSTROPHE) {
+                first++;
+             }
+             while (length > first && token[length - 1] == TextNormalizer.APOSTROPHE) {
+                length--;
+             }
+             if (!ascii && length > first) {
+                // Composes combining marks with their letters, as for the word file and feedback
+                String word = TextNormalizer.word(new String(token, first, length - first));
+                if (word == null) {
+                   continue;
+                }
+                if (first + word.length() > token.length) {
+                   token = Arrays.copyOf(token, first + word.length());
+                }
+                word.getChars(0, word.length(), token, first);
+                length = first + word.length();
+             }
+             if (length > first) {
+                add(localId(first, length - first));
+             }
+          }
+       }
+
+       // Counts a token and the n-grams it ends
+       private void add(int id) {
+          counts[id]++;
+          if (previous >= 0) {
+             ngrams.addBigram(previous, id);
+          }
+          if (beforePrevious >= 0 && previous >= 0) {
+             ngrams.addTrigram(beforePrevious, previous, id);
+          }
+          if (first[0] < 0) {
+             first[0] = id;
+          } else if (first[1] < 0) {
+             first[1] = id;
+          }
+          beforePrevious = previous;
+          previous = id;
+       }
+
+       // Finds the local ID of the word token[at, at + length), adding the word if it is new
+       private int localId(int at, int length) {
+          if (wordCount * 2 >= table.length) {
+             rehash();
+          }
+          int mask = table.length - 1;
+          int slot = mix(hash(token, at, length)) & mask;
+          while (table[slot] != 0) {
+             int id = table[slot] - 1;
+             if (Arrays.equals(chars, wordStarts[id], wordStarts[id] + wordLengths[id], token, at, at + length)) {
+                return id;
+             }
+             slot = (slot + 1) & mask;
+          }
+          if (wordCount == counts.length) {
+             wordStarts = Arrays.copyOf(wordStarts, wordCount * 2);
+             wordLengths = Arrays.copyOf(wordLengths, wordCount * 2);
+             counts = Arrays.copyOf(counts, wordCount * 2);
+          }
+          if (charCount + length > chars.length) {
+             chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+          }
+          System.arraycopy(token, at, chars, charCount, length);
+          wordStarts[wordCount] = charCount;
+          wordLengths[wordCount] = length;
+          charCount += length;
+          table[slot] = ++wordCount;
+          return wordCount - 1;
+       }
+
+       private void rehash() {
+          int[] grown = new int[table.length * 2];
+          int mask = grown.length - 1;
+          for (int id = 0; id < wordCount; id++) {
+             int slot = mix(hash(chars, wordStarts[id], wordLengths[id])) & mask;
+             while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+             }
+             grown[slot] = id + 1;
+          }
+          table = grown;
+       }
+
+       // Builds the String of a local word, once per shard
+       String word(int id) {
+          return new String(chars, wordStarts[id], wordLengths[id]);
+       }
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Inner Classes
+
+    // CorpusIngester class
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    static final int DEFAULT_CHUNK_BYTES = 1 << 23; // 8 MB per shard
+
+    private final Trie trie;
+    private final NGramModel ngrams;
+    private final int chunkBytes;
+    private int previous = -1; // IDs of the last two words merged so far, carried across shards
+    private int beforePrevious = -1;
+
+    public CorpusIngester(Trie trie, NGramModel ngrams) {
+        this(trie, ngrams, DEFAULT_CHUNK_BYTES);
+    }
+
+    public CorpusIngester(Trie trie, NGramModel ngrams, int chunkBytes) {
+        this.trie = trie;
+        this.ngrams = ngrams;
+        this.chunkBytes = chunkBytes;
+    }
+
+    // Tokenizes a file with one worker per chunk and merges the results into the models
+    public void ingest(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            List<Shard> shards = new ArrayList<>();
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                long end = wordBoundary(channel, Math.min(size, start + chunkBytes));
+                shards.add(new Shard(channel, start, end));
+                start = end;
+            }
+            ForkJoinTask.invokeAll(shards);
+            for (Shard shard : shards) {
+                if (shard.failure != null) {
+                    throw shard.failure;
+                }
+                merge(shard);
+            }
+        }
+    }
+
+    // Adds a shard to the models, with the n-grams that join it to the shards before it
+    private void merge(Shard shard) {
+        int[] ids = new int[shard.wordCount];
+        for (int id = 0; id < shard.wordCount; id++) {
+            ids[id] = trie.insert(shard.word(id), shard.counts[id]);
+        }
+        ngrams.addAll(shard.ngrams, ids);
+
+        int first = shard.first[0] >= 0 ? ids[shard.first[0]] : -1;
+        int second = shard.first[1] >= 0 ? ids[shard.first[1]] : -1;
+        if (first >= 0 && previous >= 0) {
+            ngrams.addBigram(previous, first);
+            if (beforePrevious >= 0) {
+                ngrams.addTrigram(beforePrevious, previous, first);
+            }
+        }
+        if (second >= 0 && previous >= 0) {
+            ngrams.addTrigram(previous, first, second);
+        }
+
+        if (second >= 0) {
+            beforePrevious = ids[shard.beforePrevious];
+            previous = ids[shard.previous];
+        } else if (first >= 0) {
+            beforePrevious = previous;
+            previous = first;
+        }
+    }
+
+    // Moves a chunk end forward past the word it falls in, so no word is split between shards
+    private static long wordBoundary(FileChannel channel, long position) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(256);
+        long size = channel.size();
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (b >= 0 && TextNormalizer.fold((char) b) == 0) {
+                    return position + i; // An ASCII separator, never inside a word or a UTF-8 sequence
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // Bytes in the UTF-8 sequence a lead byte starts, 1 for a byte no sequence starts with
+    private static int sequenceLength(byte lead) {
+        return (lead & 0xE0) == 0xC0 ? 2 : (lead & 0xF0) == 0xE0 ? 3 : (lead & 0xF8) == 0xF0 ? 4 : 1;
+    }
+
+    // Decodes the UTF-8 sequence at an index, or returns -1 if it is malformed or cut off
+    private static int decode(ByteBuffer bytes, int at, int length) {
+        if (length == 1 || at + length > bytes.limit()) {
+            return -1;
+        }
+        int codePoint = bytes.get(at) & (0x7F >> length);
+        for (int i = 1; i < length; i++) {
+            byte b = bytes.get(at + i);
+            if ((b & 0xC0) != 0x80) {
+                return -1;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        return codePoint;
+    }
+
+    private static int hash(char[] chars, int at, int length) {
+        int hash = 0;
+        for (int i = at; i < at + length; i++) {
+            hash = hash * 31 + chars[i];
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of CorpusIngester Class
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only log of the feedback a model learned since its snapshot was written
+// Records are gathered in a direct buffer and written with one channel write per batch, so a
+// batch of feedback costs one system call rather than one per word. Each record carries its
+// length and a CRC32, so a record torn by a crash mid-write is found and cut off when reading.
+// The header names the snapshot generation the log continues from (see SmartWordModel.compact)
+//
+// Log layout (big-endian):
+//   header   MAGIC, FORMAT, long generation
+//   records  int payload length, int CRC32 of the payload, payload
+//   payload  byte guessed, then word, previous and beforePrevious, each an int length
+//            (-1 for null) followed by its chars
+class FeedbackLog implements AutoCloseable {
+    static final int MAGIC = 0x464C4F47; // "FLOG"
+    static final int FORMAT = 1;
+    static final int HEADER_BYTES = 16;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES); // Records not written yet
+    private long generation;
+
+    // Opens a log, creating it for generation 0 if it is missing or empty
+    public FeedbackLog(String logFile) throws IOException {
+        channel = FileChannel.open(Paths.get(logFile),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_BYTES) {
+            reset(0);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Read until the header is complete
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT) {
+            channel.close();
+            throw new IOException("Not a feedback log: " + logFile);
+        }
+        generation = header.getLong();
+        channel.position(channel.size());
+    }
+
+    // Generation of the snapshot the records follow
+    public long generation() {
+        return generation;
+    }
+
+    // Bytes in the file, header included, not counting records still buffered
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    // Reads the logged feedback in order, cutting off a torn record at the end so appends follow the last whole one
+    public List<SmartWordModel.Feedback> read() throws IOException {
+        flush();
+        ByteBuffer in = ByteBuffer.allocate((int) (channel.size() - HEADER_BYTES));
+        while (in.hasRemaining() && channel.read(in, HEADER_BYTES + in.position()) >= 0) {
+            // Read until the whole log is in
+        }
+        in.flip();
+        List<SmartWordModel.Feedback> records = new ArrayList<>();
+        long end = HEADER_BYTES; // Just past the last whole record
+        while (in.remaining() >= 8) {
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                break; // Torn while being written
+            }
+            ByteBuffer payload = in.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            boolean guessed = payload.get() != 0;
+            records.add(new SmartWordModel.Feedback(readString(payload), guessed,
+                    readString(payload), readString(payload)));
+            in.position(in.position() + length);
+            end = HEADER_BYTES + in.position();
+        }
+        channel.truncate(end);
+        channel.position(end);
+        return records;
+    }
+
+    // Buffers a record, writing the buffer out first if it is full
+    public void append(SmartWordModel.Feedback feedback) throws IOException {
+        int length = 1 + stringBytes(feedback.word) + stringBytes(feedback.previous)
+                + stringBytes(feedback.beforePrevious);
+        if (buffer.remaining() < 8 + length) {
+            flush();
+            if (buffer.capacity() < 8 + length) {
+                buffer = ByteBuffer.allocateDirect(8 + length); // Only for absurdly long words
+            }
+        }
+        buffer.putInt(length);
+        int checksumAt = buffer.position();
+        buffer.putInt(0);
+        int payloadAt = buffer.position();
+        buffer.put((byte) (feedback.guessed ? 1 : 0));
+        writeString(feedback.word);
+        writeString(feedback.previous);
+        writeString(feedback.beforePrevious);
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(payloadAt);
+        payload.limit(buffer.position());
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(checksumAt, (int) crc.getValue());
+    }
+
+    // Writes the buffered records to the file, which keeps them through a crash of the process
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Flushes and forces the records to the device, which keeps them through a crash of the machine
+    public void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    // Drops every record and starts the log over for a new snapshot generation
+    public void reset(long generation) throws IOException {
+        buffer.clear();
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT).putLong(generation).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.position(HEADER_BYTES);
+        channel.force(false);
+        this.generation = generation;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static int stringBytes(String s) {
+        return 4 + (s != null ? s.length() * 2 : 0);
+    }
+
+    private void writeString(String s) {
+        if (s == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.putChar(s.charAt(i));
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of FeedbackLog Class
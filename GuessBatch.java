@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+// Guesses made while typing a run of words, see SmartWord.guessWord and SmartWord.guessLines
+// Keystrokes and words are kept in parallel arrays that grow as needed and are reused after clear,
+// so replaying many lines into one batch allocates nothing once the arrays have grown
+class GuessBatch {
+    private static final int GUESSES = SmartWord.MAX_GUESSES;
+
+    // Keystrokes
+    private int keystrokes = 0;
+    private String[] guesses = new String[64 * GUESSES]; // GUESSES per keystroke, null where there were fewer
+    private int[] wordOf = new int[64]; // Index of the word each keystroke was typed in
+
+    // Words
+    private int words = 0;
+    private int[] firstKeystroke = new int[16];
+    private int[] lengths = new int[16];
+    private int[] hits = new int[16]; // Letter whose guesses held the word, -1 if it was typed out
+    private double skipped = 0; // Percentages of letters skipped, summed over the words
+
+    // Forgets every keystroke and word, keeping the arrays
+    public void clear() {
+        Arrays.fill(guesses, 0, keystrokes * GUESSES, null);
+        keystrokes = 0;
+        words = 0;
+        skipped = 0;
+    }
+
+    public int keystrokes() {
+        return keystrokes;
+    }
+
+    // The i-th guess of a keystroke, null if there were fewer
+    public String guess(int keystroke, int i) {
+        return guesses[keystroke * GUESSES + i];
+    }
+
+    public int wordOf(int keystroke) {
+        return wordOf[keystroke];
+    }
+
+    public int words() {
+        return words;
+    }
+
+    public int firstKeystroke(int word) {
+        return firstKeystroke[word];
+    }
+
+    // Letters in a word, including the ones a correct guess saved typing
+    public int length(int word) {
+        return lengths[word];
+    }
+
+    // Letter after which a guess held the word, -1 if it was typed out
+    public int hit(int word) {
+        return hits[word];
+    }
+
+    // Percentage of letters a correct guess saved per word, the accuracy EvalSmartWord reports
+    public double accuracy() {
+        return words == 0 ? 0 : skipped / words;
+    }
+
+    // Sum of the percentages behind accuracy, for adding up batches
+    public double skipped() {
+        return skipped;
+    }
+
+    // Adding methods, for SmartWord
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Starts a word and returns its index
+    int startWord(int length) {
+        if (words == lengths.length) {
+            firstKeystroke = Arrays.copyOf(firstKeystroke, words * 2);
+            lengths = Arrays.copyOf(lengths, words * 2);
+            hits = Arrays.copyOf(hits, words * 2);
+        }
+        firstKeystroke[words] = keystrokes;
+        lengths[words] = length;
+        hits[words] = -1;
+        return words++;
+    }
+
+    // Starts a keystroke of the last word and returns the offset its guesses go to in guesses()
+    int startKeystroke() {
+        if (keystrokes == wordOf.length) {
+            wordOf = Arrays.copyOf(wordOf, keystrokes * 2);
+            guesses = Arrays.copyOf(guesses, keystrokes * 2 * GUESSES);
+        }
+        wordOf[keystrokes] = words - 1;
+        return keystrokes++ * GUESSES;
+    }
+
+    // The array keystroke guesses are written into
+    String[] guesses() {
+        return guesses;
+    }
+
+    // Records that the guesses after letter held the last word
+    void recordHit(int letter) {
+        int word = words - 1;
+        hits[word] = letter;
+        skipped += ((lengths[word] - 1 - letter) * 100.) / lengths[word];
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Adding methods
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of GuessBatch Class
@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram with log-linear buckets, like a low-precision HdrHistogram
+// A value lands in a bucket by its highest set bit and the SUB_BUCKET_BITS bits below it, so each
+// bucket spans at most 1/16 of its values and recording is a few shifts and one atomic increment.
+// Safe to record from many threads at once; reads are not atomic across buckets.
+// The bucket counts are striped like the LongAdder totals: a thread records into the stripe its
+// ID hashes to, created on first use, so sessions on different threads do not share a cache line
+// for every keystroke, and a histogram recorded from one thread holds a single set of buckets
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS; // Enough for any long
+
+    // Stripes, a power of two, about one per processor
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    // Records one value, in nanoseconds; negative values count as 0
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        stripe().incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // Returns the value at or below which the given percentage of recorded values fall,
+    // rounded up to the top of its bucket, or 0 if nothing was recorded
+    public long percentile(double percent) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += bucketCount(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    public void reset() {
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            for (int i = 0; counts != null && i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    // The current thread's stripe, created the first time a thread records into it
+    private AtomicLongArray stripe() {
+        long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L; // Spreads consecutive IDs
+        int s = (int) (id ^ (id >>> 32)) & (STRIPES - 1);
+        AtomicLongArray counts = stripes.get(s);
+        if (counts == null) {
+            stripes.compareAndSet(s, null, new AtomicLongArray(BUCKETS));
+            counts = stripes.get(s);
+        }
+        return counts;
+    }
+
+    // Values recorded in a bucket, over every stripe
+    private long bucketCount(int bucket) {
+        long count = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts != null) {
+                count += counts.get(bucket);
+            }
+        }
+        return count;
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // At least SUB_BUCKET_BITS here
+        int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value that falls in a bucket
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of LatencyHistogram Class
@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Read-only Trie answering lookups straight from a snapshot buffer, usually a memory-mapped file
+// written by Trie.writeSnapshot, so the dictionary lives outside the garbage-collected heap
+//
+// Snapshot layout (big-endian):
+//   header   MAGIC, FORMAT, node count, top entry count, word count, word pool length in chars,
+//            then the four double ScoringWeights the top lists are ranked with
+//   nodes    NODE_BYTES per node in breadth-first order, so the children of a node are contiguous
+//   top      int node index per entry, each node's top list is a run of these
+//   starts   int pool offset per word ID, plus the pool length
+//   words    the chars of every word, back to back
+// Anything after the word pool belongs to the caller (see end())
+class MappedTrie {
+    // Snapshot format
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    static final int MAGIC = 0x54524945; // "TRIE"
+    static final int FORMAT = 3;
+    static final int HEADER_BYTES = 56;
+
+    // Node record fields, as byte offsets into the record
+    static final int LABEL = 0; // char, the character on the edge from the parent
+    static final int CHILD_COUNT = 2; // char
+    static final int FIRST_CHILD = 4; // int, node index of the first child
+    static final int WORD = 8; // int, ID of the word, -1 if the node is not a word
+    static final int FREQUENCY = 12; // int
+    static final int CONFIRMED = 16; // int
+    static final int TOP_START = 20; // int, index of the node's first top entry
+    static final int TOP_SIZE = 24; // char
+    static final int NODE_BYTES = 28;
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Snapshot format
+
+    private final ByteBuffer buffer;
+    private final int nodeCount;
+    private final int wordCount;
+    private final int topOffset; // Byte offset of the top entries
+    private final int startsOffset; // Byte offset of the word starts
+    private final int wordOffset; // Byte offset of the word pool
+    private final int end; // Byte offset just past the word pool
+    private final ScoringWeights weights;
+
+    // Opens a snapshot; counters are updated in place, so map the file PRIVATE to keep it untouched,
+    // or READ_ONLY to share it, in which case a Trie on it keeps what it learns in memory instead
+    public MappedTrie(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IOException("Not a Trie snapshot");
+        }
+        this.nodeCount = buffer.getInt(8);
+        int topCount = buffer.getInt(12);
+        this.wordCount = buffer.getInt(16);
+        int wordChars = buffer.getInt(20);
+        this.weights = new ScoringWeights(buffer.getDouble(24), buffer.getDouble(32),
+                buffer.getDouble(40), buffer.getDouble(48));
+        this.topOffset = HEADER_BYTES + nodeCount * NODE_BYTES;
+        this.startsOffset = topOffset + topCount * 4;
+        this.wordOffset = startsOffset + (wordCount + 1) * 4;
+        this.end = wordOffset + wordChars * 2;
+    }
+
+    // Lookup methods
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    public int root() {
+        return 0;
+    }
+
+    // Finds the child of a node on the edge labelled c, or -1
+    public int child(int node, char c) {
+        int low = buffer.getInt(address(node) + FIRST_CHILD);
+        int high = low + buffer.getChar(address(node) + CHILD_COUNT) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = buffer.getChar(address(mid) + LABEL);
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Finds the word node for a word, or -1
+    public int find(String word) {
+        int node = root();
+        for (int i = 0; i < word.length() && node >= 0; i++) {
+            node = child(node, word.charAt(i));
+        }
+        return node >= 0 && isWord(node) ? node : -1;
+    }
+
+    public boolean isWord(int node) {
+        return wordId(node) >= 0;
+    }
+
+    // ID of the word ending at a node, -1 if the node is not a word
+    public int wordId(int node) {
+        return buffer.getInt(address(node) + WORD);
+    }
+
+    // Reads the word ending at a node, null if the node is not a word
+    public String word(int node) {
+        int id = wordId(node);
+        if (id < 0) {
+            return null;
+        }
+        int start = buffer.getInt(startsOffset + id * 4);
+        char[] chars = new char[buffer.getInt(startsOffset + id * 4 + 4) - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar(wordOffset + (start + i) * 2);
+        }
+        return new String(chars);
+    }
+
+    // Length of the word ending at a node, which must be a word
+    public int wordLength(int node) {
+        int id = wordId(node);
+        return buffer.getInt(startsOffset + id * 4 + 4) - buffer.getInt(startsOffset + id * 4);
+    }
+
+    // The k-th character of the word ending at a node, read in place
+    public char wordChar(int node, int k) {
+        return buffer.getChar(wordOffset + (buffer.getInt(startsOffset + wordId(node) * 4) + k) * 2);
+    }
+
+    public int frequency(int node) {
+        return buffer.getInt(address(node) + FREQUENCY);
+    }
+
+    public int confirmed(int node) {
+        return buffer.getInt(address(node) + CONFIRMED);
+    }
+
+    // Number of entries in a node's top list
+    public int topSize(int node) {
+        return buffer.getChar(address(node) + TOP_SIZE);
+    }
+
+    // The i-th best word node under a node
+    public int top(int node, int i) {
+        return buffer.getInt(topOffset + (buffer.getInt(address(node) + TOP_START) + i) * 4);
+    }
+
+    // Character on the edge from a node's parent
+    public char label(int node) {
+        return buffer.getChar(address(node) + LABEL);
+    }
+
+    // Index of a node's first child; its children are this and the next childCount - 1 nodes
+    public int firstChild(int node) {
+        return buffer.getInt(address(node) + FIRST_CHILD);
+    }
+
+    public int childCount(int node) {
+        return buffer.getChar(address(node) + CHILD_COUNT);
+    }
+
+    // Byte offset just past the Trie, where the caller's own sections start
+    public int end() {
+        return end;
+    }
+
+    // The weights the top lists are ranked with
+    public ScoringWeights weights() {
+        return weights;
+    }
+
+    // Whether the snapshot is mapped read-only, see Trie
+    public boolean isReadOnly() {
+        return buffer.isReadOnly();
+    }
+
+    public int size() {
+        return nodeCount;
+    }
+
+    // Number of word IDs used by the snapshot, so IDs from wordCount() on are free
+    public int wordCount() {
+        return wordCount;
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Lookup methods
+
+    // Update methods
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Counts more occurrences or confirmations of a word, returning its ID or -1 if it is not in the snapshot
+    public int increment(String word, boolean confirmation, int count) {
+        int node = find(word);
+        if (node < 0) {
+            return -1;
+        }
+        int field = address(node) + (confirmation ? CONFIRMED : FREQUENCY);
+        buffer.putInt(field, buffer.getInt(field) + count);
+
+        // Move the word up in the top lists along its path
+        int pathNode = root();
+        offerTop(pathNode, node);
+        for (int i = 0; i < word.length(); i++) {
+            pathNode = child(pathNode, word.charAt(i));
+            offerTop(pathNode, node);
+        }
+        return wordId(node);
+    }
+
+    // Same rules as Trie.offerTop, except the list sizes are fixed by the snapshot
+    // The run is shifted in place, so a lookup reading it meanwhile can see an entry twice; Trie's
+    // selection keeps each word once
+    private void offerTop(int node, int wordNode) {
+        int start = topOffset + buffer.getInt(address(node) + TOP_START) * 4;
+        int size = topSize(node);
+        if (size == 0) {
+            return;
+        }
+        int i = 0;
+        while (i < size && buffer.getInt(start + i * 4) != wordNode) {
+            i++;
+        }
+        if (i == size) {
+            if (!ranksAbove(wordNode, buffer.getInt(start + (size - 1) * 4))) {
+                return; // Not good enough for this subtree
+            }
+            i = size - 1; // Replace the weakest entry
+        }
+        while (i > 0 && ranksAbove(wordNode, buffer.getInt(start + (i - 1) * 4))) {
+            buffer.putInt(start + i * 4, buffer.getInt(start + (i - 1) * 4));
+            i--;
+        }
+        buffer.putInt(start + i * 4, wordNode);
+    }
+
+    private boolean ranksAbove(int a, int b) {
+        double scoreA = weights.unigram(frequency(a), confirmed(a));
+        double scoreB = weights.unigram(frequency(b), confirmed(b));
+        return scoreA > scoreB || (scoreA == scoreB && word(a).compareTo(word(b)) < 0);
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Update methods
+
+    private static int address(int node) {
+        return HEADER_BYTES + node * NODE_BYTES;
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of MappedTrie Class
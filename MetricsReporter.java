@@ -0,0 +1,14 @@
+import java.io.PrintStream;
+
+// Receives the metrics of a model at a fixed interval, see SmartWordMetrics.startReporting
+// Implementations push them to a log, a file or a monitoring system
+public interface MetricsReporter {
+    void report(SmartWordMetrics metrics);
+
+    // Prints one summary line per report
+    static MetricsReporter printingTo(PrintStream out) {
+        return metrics -> out.println(metrics);
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of MetricsReporter Interface
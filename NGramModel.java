@@ -0,0 +1,307 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Bigram and trigram counts over the word IDs handed out by Trie
+// Every key is two IDs packed into a long (id1 << 32 | id2), so there are no Strings or boxed counts;
+// a trigram is keyed by the ID of its leading word pair followed by the next word
+class NGramModel {
+    // Inner Classes of NGramModel
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // LongIntMap inner class, an open-addressing hash map from long keys to int values
+    // One thread writes while others read without locks: a reader takes the current table once,
+    // and a resize publishes a complete new table rather than changing the old one. A new key is
+    // published with a release store after its value, so a reader that sees the key sees the value
+    static class LongIntMap {
+       private static final long EMPTY = -1L; // Never a packed key, since IDs are not negative
+       private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+
+       // Table inner class to keep the keys and values of one capacity together
+       private static final class Table {
+          final long[] keys;
+          final int[] values;
+
+          Table(int capacity) {
+             keys = new long[capacity];
+             values = new int[capacity];
+             Arrays.fill(keys, EMPTY);
+          }
+       }
+
+       private volatile Table table;
+       private int size = 0;
+
+       LongIntMap() {
+          this(16);
+       }
+
+       private LongIntMap(int capacity) {
+          table = new Table(capacity);
+       }
+
+       // Returns the value for a key, or missing if it is absent
+       int get(long key, int missing) {
+          Table table = this.table;
+          int mask = table.keys.length - 1;
+          for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+             long seen = (long) KEYS.getAcquire(table.keys, i);
+             if (seen == key) {
+                return table.values[i];
+             }
+             if (seen == EMPTY) {
+                return missing;
+             }
+          }
+       }
+
+       // Adds delta to the value for a key, starting from 0, and returns the new value
+       int add(long key, int delta) {
+          int i = slot(key);
+          if (i < 0) {
+             return claim(~i, key, delta);
+          }
+          table.values[i] += delta;
+          return table.values[i];
+       }
+
+       // Returns the value for a key, storing ifAbsent first if it is missing
+       int putIfAbsent(long key, int ifAbsent) {
+          int i = slot(key);
+          return i < 0 ? claim(~i, key, ifAbsent) : table.values[i];
+       }
+
+       // Sets the value for a key
+       void put(long key, int value) {
+          int i = slot(key);
+          if (i < 0) {
+             claim(~i, key, value);
+          } else {
+             table.values[i] = value;
+          }
+       }
+
+       int size() {
+          return size;
+       }
+
+       // Finds the slot of a key, or ~slot of the empty slot it would take if it is missing
+       private int slot(long key) {
+          if ((size + 1) * 4 > table.keys.length * 3) {
+             resize();
+          }
+          long[] keys = table.keys;
+          int mask = keys.length - 1;
+          int i = hash(key) & mask;
+          while (keys[i] != key) {
+             if (keys[i] == EMPTY) {
+                return ~i;
+             }
+             i = (i + 1) & mask;
+          }
+          return i;
+       }
+
+       // Stores a missing key's value in its empty slot, then publishes the key to readers
+       private int claim(int i, long key, int value) {
+          table.values[i] = value;
+          KEYS.setRelease(table.keys, i, key);
+          size++;
+          return value;
+       }
+
+       private void resize() {
+          Table old = table;
+          Table grown = new Table(old.keys.length * 2);
+          int mask = grown.keys.length - 1;
+          for (int i = 0; i < old.keys.length; i++) {
+             if (old.keys[i] != EMPTY) {
+                int j = hash(old.keys[i]) & mask;
+                while (grown.keys[j] != EMPTY) {
+                   j = (j + 1) & mask;
+                }
+                grown.keys[j] = old.keys[i];
+                grown.values[j] = old.values[i];
+             }
+          }
+          table = grown;
+       }
+
+       private static int hash(long key) {
+          key *= 0x9E3779B97F4A7C15L; // Spreads neighbouring IDs across the table
+          return (int) (key ^ (key >>> 32));
+       }
+
+       void write(DataOutputStream out) throws IOException {
+          Table table = this.table;
+          out.writeInt(table.keys.length);
+          out.writeInt(size);
+          for (int i = 0; i < table.keys.length; i++) {
+             out.writeLong(table.keys[i]);
+             out.writeInt(table.values[i]);
+          }
+       }
+
+       static LongIntMap read(ByteBuffer in) {
+          LongIntMap map = new LongIntMap(in.getInt());
+          map.size = in.getInt();
+          for (int i = 0; i < map.table.keys.length; i++) {
+             map.table.keys[i] = in.getLong();
+             map.table.values[i] = in.getInt();
+          }
+          return map;
+       }
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Inner Classes
+
+    // NGramModel class
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    private final LongIntMap bigrams; // (previous, next) -> count
+    private final LongIntMap pairs; // (word before previous, previous) -> pair ID
+    private final LongIntMap trigrams; // (pair ID, next) -> count
+    private final LongIntMap bigramMax = new LongIntMap(); // previous -> highest bigram count after it
+    private final LongIntMap trigramMax = new LongIntMap(); // pair ID -> highest trigram count after it
+
+    public NGramModel() {
+        this(new LongIntMap(), new LongIntMap(), new LongIntMap());
+    }
+
+    private NGramModel(LongIntMap bigrams, LongIntMap pairs, LongIntMap trigrams) {
+        this.bigrams = bigrams;
+        this.pairs = pairs;
+        this.trigrams = trigrams;
+    }
+
+    // Counts the word next following previous
+    public void addBigram(int previous, int next) {
+        countBigram(previous, next, 1);
+    }
+
+    // Counts the word next following the pair (beforePrevious, previous)
+    public void addTrigram(int beforePrevious, int previous, int next) {
+        int pair = pairs.putIfAbsent(pack(beforePrevious, previous), pairs.size());
+        countTrigram(pair, next, 1);
+    }
+
+    private void countBigram(int previous, int next, int count) {
+        raiseMax(bigramMax, previous, bigrams.add(pack(previous, next), count));
+    }
+
+    private void countTrigram(int pair, int next, int count) {
+        raiseMax(trigramMax, pair, trigrams.add(pack(pair, next), count));
+    }
+
+    // How often next followed previous, 0 if either is -1
+    public int bigram(int previous, int next) {
+        return previous < 0 || next < 0 ? 0 : bigrams.get(pack(previous, next), 0);
+    }
+
+    // Resolves a word pair once, so the trigrams of many candidates can be looked up against it
+    // Returns -1 if the pair was never seen
+    public int pair(int beforePrevious, int previous) {
+        return beforePrevious < 0 || previous < 0 ? -1 : pairs.get(pack(beforePrevious, previous), -1);
+    }
+
+    // How often next followed the pair, 0 if the pair is -1
+    public int trigram(int pair, int next) {
+        return pair < 0 || next < 0 ? 0 : trigrams.get(pack(pair, next), 0);
+    }
+
+    // The highest bigram count of any word after previous, an upper bound for bigram(previous, next)
+    public int maxBigram(int previous) {
+        return previous < 0 ? 0 : bigramMax.get(previous, 0);
+    }
+
+    // The highest trigram count of any word after the pair, an upper bound for trigram(pair, next)
+    public int maxTrigram(int pair) {
+        return pair < 0 ? 0 : trigramMax.get(pair, 0);
+    }
+
+    // Distinct word pairs counted
+    public int bigramCount() {
+        return bigrams.size();
+    }
+
+    // Distinct word triplets counted
+    public int trigramCount() {
+        return trigrams.size();
+    }
+
+    // Adds the counts of a model built over other word IDs, where ids maps its IDs to this model's
+    public void addAll(NGramModel other, int[] ids) {
+        LongIntMap.Table bigramsOther = other.bigrams.table;
+        for (int i = 0; i < bigramsOther.keys.length; i++) {
+            long key = bigramsOther.keys[i];
+            if (key != LongIntMap.EMPTY) {
+                countBigram(ids[high(key)], ids[low(key)], bigramsOther.values[i]);
+            }
+        }
+
+        // Translate the other model's pair IDs back to word pairs first
+        LongIntMap.Table pairsOther = other.pairs.table;
+        long[] pairKeys = new long[other.pairs.size()];
+        for (int i = 0; i < pairsOther.keys.length; i++) {
+            long key = pairsOther.keys[i];
+            if (key != LongIntMap.EMPTY) {
+                pairKeys[pairsOther.values[i]] = key;
+            }
+        }
+        LongIntMap.Table trigramsOther = other.trigrams.table;
+        for (int i = 0; i < trigramsOther.keys.length; i++) {
+            long key = trigramsOther.keys[i];
+            if (key != LongIntMap.EMPTY) {
+                long pairKey = pairKeys[high(key)];
+                int pair = pairs.putIfAbsent(pack(ids[high(pairKey)], ids[low(pairKey)]), pairs.size());
+                countTrigram(pair, ids[low(key)], trigramsOther.values[i]);
+            }
+        }
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        bigrams.write(out);
+        pairs.write(out);
+        trigrams.write(out);
+    }
+
+    // The maxima are not written, since they follow from the counts
+    public static NGramModel read(ByteBuffer in) {
+        NGramModel model = new NGramModel(LongIntMap.read(in), LongIntMap.read(in), LongIntMap.read(in));
+        LongIntMap.Table bigrams = model.bigrams.table;
+        for (int i = 0; i < bigrams.keys.length; i++) {
+            if (bigrams.keys[i] != LongIntMap.EMPTY) {
+                raiseMax(model.bigramMax, high(bigrams.keys[i]), bigrams.values[i]);
+            }
+        }
+        LongIntMap.Table trigrams = model.trigrams.table;
+        for (int i = 0; i < trigrams.keys.length; i++) {
+            if (trigrams.keys[i] != LongIntMap.EMPTY) {
+                raiseMax(model.trigramMax, high(trigrams.keys[i]), trigrams.values[i]);
+            }
+        }
+        return model;
+    }
+
+    // Counts only grow, so the maximum after a key is simply the largest count ever seen
+    private static void raiseMax(LongIntMap max, int key, int count) {
+        if (count > max.get(key, 0)) {
+            max.put(key, count);
+        }
+    }
+
+    private static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private static int high(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int low(long key) {
+        return (int) key;
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of NGramModel Class
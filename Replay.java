@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Replays messages against a model and scores the guesses the way EvalSmartWord does
+// The lines are cut into chunks, each typed by a fork-join worker on sessions that do not learn,
+// so the model is only read and the chunks are independent. Totals are added up in chunk order,
+// so a replay gives the same numbers however the workers were scheduled
+class Replay {
+    // Inner Classes of Replay
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Chunk inner class to type a run of lines
+    @SuppressWarnings("serial") // Forked, never serialized
+    private static class Chunk extends RecursiveAction {
+       private final SmartWordModel model;
+       private final List<? extends CharSequence> lines;
+       private final int start;
+       private final int end;
+
+       private long words = 0;
+       private long keystrokes = 0;
+       private double skipped = 0;
+
+       Chunk(SmartWordModel model, List<? extends CharSequence> lines, int start, int end) {
+          this.model = model;
+          this.lines = lines;
+          this.start = start;
+          this.end = end;
+       }
+
+       @Override
+       protected void compute() {
+          GuessBatch batch = new GuessBatch(); // Reused for every line
+          for (int i = start; i < end; i++) {
+             new SmartWord(model, false).guessLines(lines.get(i), batch);
+             words += batch.words();
+             keystrokes += batch.keystrokes();
+             skipped += batch.skipped();
+             batch.clear();
+          }
+       }
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Inner Classes
+
+    // Replay class
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    static final int DEFAULT_CHUNK_LINES = 256;
+
+    private long words = 0;
+    private long keystrokes = 0;
+    private double skipped = 0;
+
+    // Replays the lines of a file, see replay
+    public static Replay replay(SmartWordModel model, String messageFile) throws IOException {
+        return replay(model, Files.readAllLines(Paths.get(messageFile)), DEFAULT_CHUNK_LINES);
+    }
+
+    // Types every line on a fresh session, chunkLines lines per worker
+    // Each line starts with no context, as a new line does in EvalSmartWord
+    public static Replay replay(SmartWordModel model, List<? extends CharSequence> lines, int chunkLines) {
+        List<Chunk> chunks = new ArrayList<>();
+        for (int start = 0; start < lines.size(); start += chunkLines) {
+            chunks.add(new Chunk(model, lines, start, Math.min(lines.size(), start + chunkLines)));
+        }
+        ForkJoinTask.invokeAll(chunks);
+        Replay replay = new Replay();
+        for (Chunk chunk : chunks) {
+            replay.words += chunk.words;
+            replay.keystrokes += chunk.keystrokes;
+            replay.skipped += chunk.skipped;
+        }
+        return replay;
+    }
+
+    public long words() {
+        return words;
+    }
+
+    // Guesses made, one per letter typed
+    public long keystrokes() {
+        return keystrokes;
+    }
+
+    // Percentage of letters a correct guess saved per word, the accuracy EvalSmartWord reports
+    public double accuracy() {
+        return words == 0 ? 0 : skipped / words;
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of Replay Class
@@ -0,0 +1,72 @@
+import java.util.Locale;
+
+// Coefficients of a word's weight in context:
+//   frequency * times seen + confirmed * times confirmed     (the unigram score)
+//   + bigram * count after the previous word + trigram * count after the two words before
+// Only the ratios between them matter, scaling all four ranks every word the same
+class ScoringWeights {
+    static final ScoringWeights DEFAULT = new ScoringWeights(0.25, 2.0, 1.5, 2.0);
+
+    final double frequency;
+    final double confirmed;
+    final double bigram;
+    final double trigram;
+
+    public ScoringWeights(double frequency, double confirmed, double bigram, double trigram) {
+        if (!(frequency >= 0 && confirmed >= 0 && bigram >= 0 && trigram >= 0)
+                || Double.isInfinite(frequency + confirmed + bigram + trigram)) {
+            throw new IllegalArgumentException("Weights must be finite and not negative: "
+                    + frequency + ", " + confirmed + ", " + bigram + ", " + trigram);
+        }
+        this.frequency = frequency;
+        this.confirmed = confirmed;
+        this.bigram = bigram;
+        this.trigram = trigram;
+    }
+
+    // Reads the four weights in toString form, "frequency,confirmed,bigram,trigram"
+    public static ScoringWeights parse(String weights) {
+        String[] parts = weights.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Expected frequency,confirmed,bigram,trigram: " + weights);
+        }
+        return new ScoringWeights(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+                Double.parseDouble(parts[2].trim()), Double.parseDouble(parts[3].trim()));
+    }
+
+    // Context-free part of a word's weight
+    public double unigram(int frequency, int confirmed) {
+        return (frequency * this.frequency) + (confirmed * this.confirmed);
+    }
+
+    // What the context adds to a word's weight
+    public double context(int bigram, int trigram) {
+        return (bigram * this.bigram) + (trigram * this.trigram);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ScoringWeights)) {
+            return false;
+        }
+        ScoringWeights weights = (ScoringWeights) other;
+        return frequency == weights.frequency && confirmed == weights.confirmed
+                && bigram == weights.bigram && trigram == weights.trigram;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(frequency);
+        bits = bits * 31 + Double.doubleToLongBits(confirmed);
+        bits = bits * 31 + Double.doubleToLongBits(bigram);
+        bits = bits * 31 + Double.doubleToLongBits(trigram);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s,%s,%s,%s", frequency, confirmed, bigram, trigram);
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of ScoringWeights Class
@@ -14,116 +14,264 @@
 */
 
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
 
 
 
 public class SmartWord {
-    private final Trie trie;
-    private final Map<String, Map<String, Integer>> bigramModel; // Tracks word pairs and their frequencies
-    private final Map<String, Map<String, Integer>> trigramModel; // Tracks word triplets and their frequencies
-    private String currentWord; // Tracks the current word being guessed
-    private static final int MAX_GUESSES = 3; // Maximum number of suggestions
+    private final SmartWordModel model; // Shared with any other sessions typing against the same model
+    private final StringBuilder currentWord = new StringBuilder(); // Tracks the current word being guessed
+    private final StringBuilder lineWord = new StringBuilder(); // Word guessLines is typing, reused across lines
+    private final Trie.PrefixCursor cursor; // Follows currentWord through the Trie between guesses
+    private String previousWord = null; // Last completed word on this line, null if none
+    private String wordBeforePrevious = null; // Completed word before that, null if none
+    private int previousId = -1; // Their IDs, looked up once per word
+    private int beforePreviousId = -1;
+    private boolean contextResolved = false; // Whether the IDs match the words above
+    private int lastWordPosition = -1; // Position of the word last guessed, -1 before any guess
+    static final int MAX_GUESSES = 3; // Maximum number of suggestions
+    // Prints every guess when run with -Dsmartword.debug=true; a constant, so when off the JIT drops the check
+    private static final boolean DEBUG = Boolean.getBoolean("smartword.debug");
+    private final SmartWordMetrics metrics;
+    private final boolean learn; // Whether feedback updates the model, or only this session's context
 
     // Constructor to initialize the Trie and models from the word file
     public SmartWord(String wordFile) throws IOException {
-        this.trie = new Trie();
-        this.bigramModel = new HashMap<>();
-        this.trigramModel = new HashMap<>();
-        this.currentWord = "";
-        loadWordsIntoTrie(wordFile);
-    }
-
-    // Loads words from the word file into the Trie
-    private void loadWordsIntoTrie(String wordFile) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(wordFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String word = line.trim().toLowerCase(); // Normalize to lowercase
-                if (!word.isEmpty()) {
-                    trie.insert(word); // Inserts words into Trie
-                }
-            }
+        this(new SmartWordModel(wordFile));
+    }
+
+    // Starts a typing session on a model that other sessions may be using at the same time
+    public SmartWord(SmartWordModel model) {
+        this(model, true);
+    }
+
+    // Starts a session that learns from feedback only if learn is set; sessions that do not learn
+    // leave the model read-only, so replays on many threads give the same guesses as one
+    public SmartWord(SmartWordModel model, boolean learn) {
+        this.model = model;
+        this.cursor = model.newCursor();
+        this.metrics = model.metrics();
+        this.learn = learn;
+    }
+
+    // Builds a snapshot from a word file and old messages, for SmartWord.fromSnapshot
+    // The weights, as printed by WeightTuner, default to ScoringWeights.DEFAULT
+    // Usage: SmartWord wordFile oldMessageFile snapshotFile [frequency,confirmed,bigram,trigram]
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("Usage: SmartWord wordFile oldMessageFile snapshotFile [frequency,confirmed,bigram,trigram]");
+            System.exit(-1);
         }
+        ScoringWeights weights = args.length == 4 ? ScoringWeights.parse(args[3]) : ScoringWeights.DEFAULT;
+        SmartWordModel model = new SmartWordModel(args[0], weights);
+        model.processOldMessages(args[1]);
+        model.saveSnapshot(args[2]);
+    }
+
+    // Opens a snapshot written by saveSnapshot, answering guesses from the mapped file
+    public static SmartWord fromSnapshot(String snapshotFile) throws IOException {
+        return new SmartWord(SmartWordModel.fromSnapshot(snapshotFile));
+    }
+
+    // Writes the model so a later run can start from fromSnapshot
+    public void saveSnapshot(String snapshotFile) throws IOException {
+        model.saveSnapshot(snapshotFile);
     }
 
     // Processes old messages to populate the Trie and n-gram models
     public void processOldMessages(String oldMessageFile) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(oldMessageFile))) {
-            String line;
-            String prevWord = null; // Tracks the previous word for bigram updates
-            String prevPrevWord = null; // Tracks the word before the previous word for trigram updates
-
-            while ((line = br.readLine()) != null) {
-                line = line.replaceAll("[^a-zA-Z']", " ").toLowerCase(); // Normalizes and removes non-alphabetic characters
-                String[] words = line.split("\\s+");
-
-                for (String word : words) {
-                    if (!word.isEmpty()) {
-                        trie.insert(word); // Inserts word into Trie
-
-                        // Updates bigram model
-                        if (prevWord != null) {
-                            bigramModel.computeIfAbsent(prevWord, k -> new HashMap<>())
-                                       .merge(word, 1, Integer::sum);
-                        }
-
-                        // Updates trigram model
-                        if (prevPrevWord != null && prevWord != null) {
-                            String bigram = prevPrevWord + " " + prevWord;
-                            trigramModel.computeIfAbsent(bigram, k -> new HashMap<>())
-                                        .merge(word, 1, Integer::sum);
-                        }
-
-                        // Updates word trackers
-                        prevPrevWord = prevWord;
-                        prevWord = word;
-                    }
-                }
-            }
-        }
+        model.processOldMessages(oldMessageFile);
     }
 
-    // Prunes unused words and compresses the Trie for efficiency
+    // Metrics of the model, shared with any other sessions on it
+    public SmartWordMetrics metrics() {
+        return metrics;
+    }
+
+    // Lets guesses look past mistyped letters, see SmartWordModel.setMaxEdits
+    public void setMaxEdits(int maxEdits) {
+        model.setMaxEdits(maxEdits);
+    }
+
+    // Prunes unused words from the model
     public void pruneUnusedWords() {
-        trie.pruneUnused(); // Removes low-frequency or unconfirmed words
-        trie.compressTrie(); // Optimizes Trie structure
+        model.pruneUnusedWords();
+    }
+
+    // Prunes unused words and keeps at most maxWords of the dictionary in memory, see SmartWordModel
+    public int pruneUnusedWords(int maxWords) {
+        return model.pruneUnusedWords(maxWords);
     }
 
     // Generates suggestions for the current word based on the letter typed
     public String[] guess(char letter, int letterPosition, int wordPosition) {
-        currentWord += letter; // Update the current word with the new letter
+        String[] guesses = new String[MAX_GUESSES];
+        guess(letter, letterPosition, wordPosition, guesses, 0);
+        return guesses;
+    }
 
-        // Gets suggestions from the Trie using weighted scores
-        List<String> suggestions = trie.getWeightedSuggestions(
-            currentWord, MAX_GUESSES, currentWord, bigramModel, trigramModel);
+    // Same as guess, but writes the guesses into an array from offset
+    // Once the session's buffers have grown this allocates nothing, unless the lookup misses the
+    // suggestion cache (see Trie.suggest)
+    void guess(char letter, int letterPosition, int wordPosition, String[] guesses, int offset) {
+        long start = System.nanoTime();
+        if (letterPosition == 0 && wordPosition <= lastWordPosition) {
+            // A new line starts, so the words before it are no context. Positions only grow along a
+            // line, and a line whose first words have no letters never guesses at position 0
+            previousWord = null;
+            wordBeforePrevious = null;
+            contextResolved = false;
+        }
+        lastWordPosition = wordPosition;
+        if (!contextResolved) {
+            // Resolved here rather than in feedback, since a new word only gets its ID once the model applies it
+            previousId = model.wordId(previousWord);
+            beforePreviousId = model.wordId(wordBeforePrevious);
+            contextResolved = true;
+        }
+        // Folded like the words it should match; anything that cannot be part of a word is kept
+        // as typed, and matches no word
+        char folded = TextNormalizer.fold(letter);
+        char c = folded != 0 ? folded : letter;
+        currentWord.append(c); // Update the current word with the new letter
+        if (c < 0x80 || !TextNormalizer.refold(currentWord)) {
+            cursor.advance(currentWord.charAt(currentWord.length() - 1)); // One child lookup instead of a walk from the root
+        } else {
+            // A combining mark or the second half of a surrogate pair changed letters already looked up
+            cursor.reset();
+            for (int i = 0; i < currentWord.length(); i++) {
+                cursor.advance(currentWord.charAt(i));
+            }
+        }
 
-        // Prepares the output array of guesses
-        String[] guesses = new String[MAX_GUESSES];
-        for (int i = 0; i < MAX_GUESSES; i++) {
-            guesses[i] = i < suggestions.size() ? suggestions.get(i) : null;
+        // Gets suggestions from the Trie using weighted scores, straight into the output array
+        int found = model.suggest(cursor, MAX_GUESSES, beforePreviousId, previousId, guesses, offset);
+        Arrays.fill(guesses, offset + found, offset + MAX_GUESSES, null);
+
+        metrics.guessLatency.record(System.nanoTime() - start);
+        if (DEBUG) {
+            System.out.println("Current word: " + currentWord);
+            System.out.println("Suggestions: " + Arrays.toString(Arrays.copyOfRange(guesses, offset, offset + MAX_GUESSES)));
         }
+    }
 
-        // Prints debug information
-        System.out.println("Current word: " + currentWord);
-        System.out.println("Suggestions: " + Arrays.toString(guesses));
-        return guesses;
+    // Types a word letter by letter until one of the guesses is the word, ignoring case, then gives
+    // feedback, the way EvalSmartWord drives guess and feedback. Keystrokes are added to out.
+    // Returns the letter after which the guesses held the word, -1 if it was typed out
+    public int guessWord(CharSequence word, int wordPosition, GuessBatch out) {
+        out.startWord(word.length());
+        for (int letter = 0; letter < word.length(); letter++) {
+            int offset = out.startKeystroke();
+            String[] guesses = out.guesses();
+            guess(word.charAt(letter), letter, wordPosition, guesses, offset);
+            for (int i = 0; i < MAX_GUESSES; i++) {
+                if (equalsIgnoreCase(guesses[offset + i], word)) {
+                    out.recordHit(letter);
+                    feedback(true, word.toString());
+                    return letter;
+                }
+            }
+        }
+        if (word.length() > 0) {
+            feedback(false, word.toString());
+        }
+        return -1;
+    }
+
+    // Types every line of a text with guessWord, splitting lines into words like EvalSmartWord:
+    // words are separated by whitespace and keep only their letters a-z and A-Z
+    public void guessLines(CharSequence text, GuessBatch out) {
+        StringBuilder word = lineWord;
+        int i = 0;
+        while (i < text.length()) {
+            int end = i;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            guessLine(text, i, end, word, out);
+            i = end + 1;
+            if (end + 1 < text.length() && text.charAt(end) == '\r' && text.charAt(end + 1) == '\n') {
+                i++;
+            }
+        }
+    }
+
+    // Types the line text[start, end)
+    private void guessLine(CharSequence text, int start, int end, StringBuilder word, GuessBatch out) {
+        forEachWord(text, start, end, word, (letters, wordPosition) -> guessWord(letters, wordPosition, out));
+    }
+
+    // Splits the line text[start, end) into words like EvalSmartWord, passing each with its position
+    // The word is built in the given builder and only valid during the call. Words can be empty,
+    // such as the first word of a line starting with whitespace
+    static void forEachWord(CharSequence text, int start, int end, StringBuilder word,
+                            ObjIntConsumer<StringBuilder> words) {
+        int first = start;
+        while (first < end && isWhitespace(text.charAt(first))) {
+            first++;
+        }
+        if (first == end && start != end) {
+            return; // A line of only whitespace has no words
+        }
+        int wordPosition = 0;
+        if (first > start) {
+            word.setLength(0);
+            words.accept(word, wordPosition++); // Leading whitespace splits off an empty first word
+        }
+        int i = first;
+        do {
+            word.setLength(0);
+            while (i < end && !isWhitespace(text.charAt(i))) {
+                char c = text.charAt(i++);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                    word.append(c);
+                }
+            }
+            words.accept(word, wordPosition++);
+            while (i < end && isWhitespace(text.charAt(i))) {
+                i++;
+            }
+        } while (i < end);
+    }
+
+    // The characters of the regular expression \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
     }
 
-    // Provides feedback on the guesses and updates the Trie if necessary
+    private static boolean equalsIgnoreCase(String guess, CharSequence word) {
+        if (guess == null || guess.length() != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < guess.length(); i++) {
+            char a = guess.charAt(i);
+            char b = word.charAt(i);
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)
+                    && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Provides feedback on the guesses and updates the model if necessary
     public void feedback(boolean isCorrectGuess, String correctWord) {
-        if (isCorrectGuess) {
-            currentWord = ""; // Reset current word if the guess was correct
-        } else if (correctWord != null) {
-            trie.insert(correctWord.toLowerCase()); // Insert the correct word into Trie
-            trie.confirmWord(correctWord.toLowerCase()); // Mark the word as confirmed
-            currentWord = ""; // Reset current word
+        if (correctWord == null) {
+            return; // The word is still being typed
+        }
+        long start = System.nanoTime();
+        String word = TextNormalizer.word(correctWord); // Null if it is not a single word
+        if (learn && word != null) {
+            model.learn(word, isCorrectGuess, previousWord, wordBeforePrevious);
         }
+        wordBeforePrevious = word != null ? previousWord : null; // A non-word breaks the context
+        previousWord = word;
+        contextResolved = false;
+
+        currentWord.setLength(0); // Reset current word
+        cursor.reset();
+        metrics.feedbackLatency.record(System.nanoTime() - start);
     }
 }
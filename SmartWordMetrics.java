@@ -0,0 +1,202 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Metrics of one SmartWordModel, shared by all its sessions
+// Sessions record guess and feedback latencies into histograms; everything else is read on demand
+// from the counters the Trie, its suggestion cache and the n-gram model already keep, so nothing
+// on the keystroke path is added beyond two clock reads and a histogram update
+public class SmartWordMetrics implements SmartWordMetricsMBean {
+    private static final ScheduledExecutorService REPORTING = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "SmartWord metrics reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Trie trie;
+    private final NGramModel ngrams;
+    final LatencyHistogram guessLatency = new LatencyHistogram(); // Recorded by SmartWord
+    final LatencyHistogram feedbackLatency = new LatencyHistogram();
+    private ObjectName name = null; // Set while registered with JMX
+
+    SmartWordMetrics(Trie trie, NGramModel ngrams) {
+        this.trie = trie;
+        this.ngrams = ngrams;
+    }
+
+    // Registers these metrics with the platform MBean server as SmartWord:type=Metrics,name=<name>
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = ObjectName.getInstance("SmartWord:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            name = null;
+        }
+    }
+
+    // Hands these metrics to the reporter every period until the returned future is cancelled
+    public ScheduledFuture<?> startReporting(MetricsReporter reporter, long period, TimeUnit unit) {
+        return REPORTING.scheduleAtFixedRate(() -> reporter.report(this), period, period, unit);
+    }
+
+    // Guess methods
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    @Override
+    public long getGuesses() {
+        return guessLatency.count();
+    }
+
+    @Override
+    public double getGuessLatencyMean() {
+        return micros(guessLatency.mean());
+    }
+
+    @Override
+    public double getGuessLatencyP50() {
+        return micros(guessLatency.percentile(50));
+    }
+
+    @Override
+    public double getGuessLatencyP99() {
+        return micros(guessLatency.percentile(99));
+    }
+
+    @Override
+    public double getGuessLatencyP999() {
+        return micros(guessLatency.percentile(99.9));
+    }
+
+    @Override
+    public double getGuessLatencyMax() {
+        return micros(guessLatency.max());
+    }
+
+    @Override
+    public long getFeedbacks() {
+        return feedbackLatency.count();
+    }
+
+    @Override
+    public double getFeedbackLatencyMean() {
+        return micros(feedbackLatency.mean());
+    }
+
+    @Override
+    public double getFeedbackLatencyP99() {
+        return micros(feedbackLatency.percentile(99));
+    }
+
+    @Override
+    public double getFeedbackLatencyMax() {
+        return micros(feedbackLatency.max());
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Guess methods
+
+    // Lookup methods
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    @Override
+    public long getCacheHits() {
+        return trie.suggestionCache().hits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return trie.suggestionCache().misses();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return trie.suggestionCache().evictions();
+    }
+
+    @Override
+    public int getCacheSize() {
+        return trie.suggestionCache().size();
+    }
+
+    @Override
+    public long getLookups() {
+        return trie.lookups();
+    }
+
+    @Override
+    public double getNodesVisitedPerLookup() {
+        long lookups = trie.lookups();
+        return lookups == 0 ? 0 : (double) trie.nodesVisited() / lookups;
+    }
+
+    @Override
+    public double getCandidatesScoredPerLookup() {
+        long lookups = trie.lookups();
+        return lookups == 0 ? 0 : (double) trie.candidatesScored() / lookups;
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Lookup methods
+
+    // Size methods
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    @Override
+    public int getTrieNodes() {
+        return trie.nodeCount();
+    }
+
+    @Override
+    public int getWords() {
+        return trie.wordCount();
+    }
+
+    @Override
+    public int getColdWords() {
+        return trie.coldWordCount();
+    }
+
+    @Override
+    public int getBigrams() {
+        return ngrams.bigramCount();
+    }
+
+    @Override
+    public int getTrigrams() {
+        return ngrams.trigramCount();
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Size methods
+
+    @Override
+    public void resetLatencies() {
+        guessLatency.reset();
+        feedbackLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("guesses=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus"
+                + " feedbacks=%d p99=%.1fus cache hits=%d misses=%d"
+                + " lookups=%d nodes/lookup=%.1f scored/lookup=%.1f"
+                + " nodes=%d words=%d cold=%d bigrams=%d trigrams=%d",
+                getGuesses(), getGuessLatencyP50(), getGuessLatencyP99(), getGuessLatencyP999(), getGuessLatencyMax(),
+                getFeedbacks(), getFeedbackLatencyP99(), getCacheHits(), getCacheMisses(),
+                getLookups(), getNodesVisitedPerLookup(), getCandidatesScoredPerLookup(),
+                getTrieNodes(), getWords(), getColdWords(), getBigrams(), getTrigrams());
+    }
+
+    private static double micros(double nanos) {
+        return nanos / 1000;
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of SmartWordMetrics Class
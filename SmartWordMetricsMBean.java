@@ -0,0 +1,52 @@
+// Management interface of SmartWordMetrics, as shown in JConsole or any other JMX client
+// Latencies are in microseconds
+public interface SmartWordMetricsMBean {
+    long getGuesses();
+
+    double getGuessLatencyMean();
+
+    double getGuessLatencyP50();
+
+    double getGuessLatencyP99();
+
+    double getGuessLatencyP999();
+
+    double getGuessLatencyMax();
+
+    long getFeedbacks();
+
+    double getFeedbackLatencyMean();
+
+    double getFeedbackLatencyP99();
+
+    double getFeedbackLatencyMax();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    int getCacheSize();
+
+    long getLookups();
+
+    double getNodesVisitedPerLookup();
+
+    double getCandidatesScoredPerLookup();
+
+    int getTrieNodes();
+
+    int getWords();
+
+    int getColdWords();
+
+    int getBigrams();
+
+    int getTrigrams();
+
+    // Clears the latency histograms; the counters keep counting
+    void resetLatencies();
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of SmartWordMetricsMBean Interface
@@ -0,0 +1,393 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Language model shared by any number of SmartWord sessions, each typing on its own thread
+// Lookups never lock: the Trie publishes every change as a new array, and the n-gram tables
+// are swapped whole when they grow. Feedback from all sessions goes into one queue, drained by
+// whichever session finds the writer lock free, so there is a single writer and no session
+// ever waits for another's update.
+// A model opened with a feedback log writes each update there before applying it, so what it
+// learned survives a restart: open replays the log over the snapshot, and compact folds the log
+// into a new snapshot
+class SmartWordModel {
+    // Inner Classes of SmartWordModel
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Feedback inner class to hold a word a session finished typing, also the record of FeedbackLog
+    static class Feedback {
+       final String word;
+       final boolean guessed; // Whether a suggestion was picked, rather than the word typed out
+       final String previous; // Words before it on the line, null if none
+       final String beforePrevious;
+
+       Feedback(String word, boolean guessed, String previous, String beforePrevious) {
+          this.word = word;
+          this.guessed = guessed;
+          this.previous = previous;
+          this.beforePrevious = beforePrevious;
+       }
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Inner Classes
+
+    // SmartWordModel class
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    private static final int TOP_CANDIDATES = 32; // Candidates kept per Trie node for context reranking
+    static final int MAX_EDITS = 2; // Most mistyped letters a guess may look past
+    // Edits guesses allow unless setMaxEdits says otherwise, set with -Dsmartword.maxEdits
+    private static final int DEFAULT_MAX_EDITS = Integer.getInteger("smartword.maxEdits", 0);
+    private static final ScheduledExecutorService COMPACTION = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "SmartWord log compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Trie trie;
+    private final NGramModel ngrams; // Tracks word pairs and triplets and their frequencies, by word ID
+    private final Queue<Feedback> pending = new ConcurrentLinkedQueue<>(); // Feedback not applied yet
+    private final ReentrantLock writer = new ReentrantLock(); // Held by the one thread applying updates
+    private final SmartWordMetrics metrics;
+    private long generation = 0; // Compactions behind the snapshot the model started from
+    private FeedbackLog log = null; // Set by open, along with the snapshot the log continues
+    private String snapshotFile = null;
+    private volatile ScheduledFuture<?> compaction = null; // Set by startCompaction, cancelled by close
+    private boolean closed = false; // Set by close, with the writer lock held
+    private volatile int maxEdits = DEFAULT_MAX_EDITS;
+
+    // Builds the model from a word file
+    public SmartWordModel(String wordFile) throws IOException {
+        this(wordFile, ScoringWeights.DEFAULT);
+    }
+
+    // Builds the model from a word file, weighing words with the given weights
+    // A snapshot written from it keeps them, see fromSnapshot
+    public SmartWordModel(String wordFile, ScoringWeights weights) throws IOException {
+        this(new Trie(TOP_CANDIDATES, weights), new NGramModel());
+        loadWordsIntoTrie(wordFile);
+    }
+
+    private SmartWordModel(Trie trie, NGramModel ngrams) {
+        this.trie = trie;
+        this.ngrams = ngrams;
+        this.metrics = new SmartWordMetrics(trie, ngrams);
+    }
+
+    // Latencies, cache and lookup counters and sizes, also available over JMX once registered
+    public SmartWordMetrics metrics() {
+        return metrics;
+    }
+
+    // Opens a snapshot written by saveSnapshot, answering guesses from the mapped file
+    // The mapping is private, so learning from feedback never writes back to the file.
+    // Words are weighed with the weights the snapshot was written with
+    public static SmartWordModel fromSnapshot(String snapshotFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshotFile),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+        }
+        MappedTrie base = new MappedTrie(buffer);
+        buffer.position(base.end());
+        SmartWordModel model = new SmartWordModel(new Trie(TOP_CANDIDATES, base), NGramModel.read(buffer));
+        model.generation = buffer.remaining() >= 8 ? buffer.getLong() : 0; // Older snapshots end at the n-grams
+        return model;
+    }
+
+    // Starts a model on a dictionary snapshot mapped read-only, which other models may share
+    // The snapshot is never written: the model keeps in memory only the words it learns, snapshot
+    // words copied out once they are, and its own n-grams; those in the snapshot file are not read
+    static SmartWordModel onSharedDictionary(MappedTrie dictionary) {
+        if (!dictionary.isReadOnly()) {
+            throw new IllegalArgumentException("A shared dictionary must be mapped read-only");
+        }
+        return new SmartWordModel(new Trie(TOP_CANDIDATES, dictionary), new NGramModel());
+    }
+
+    // Opens a snapshot and the log of feedback learned since it was written, replaying the log
+    // Feedback learned from now on is appended to the log
+    public static SmartWordModel open(String snapshotFile, String logFile) throws IOException {
+        SmartWordModel model = fromSnapshot(snapshotFile);
+        FeedbackLog log = new FeedbackLog(logFile);
+        if (log.generation() == model.generation) {
+            for (Feedback feedback : log.read()) {
+                model.apply(feedback);
+            }
+        } else if (log.generation() < model.generation) {
+            log.reset(model.generation); // Already in the snapshot, compact stopped before emptying it
+        } else {
+            log.close();
+            throw new IOException("Feedback log " + logFile + " is newer than snapshot " + snapshotFile);
+        }
+        model.log = log;
+        model.snapshotFile = snapshotFile;
+        return model;
+    }
+
+    // Writes the Trie and n-gram models so a later run can start from fromSnapshot
+    // A model opened with a log should be compacted instead, which writes its own snapshot and empties the log
+    public void saveSnapshot(String snapshotFile) throws IOException {
+        writer.lock();
+        try {
+            applyPending();
+            writeSnapshot(snapshotFile, generation);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Writes the model's current state as its snapshot and empties the log, so a restart replays nothing
+    // Sessions keep guessing meanwhile and their feedback queues until it is done. The model goes on
+    // answering from the old mapping, which stays valid though the file is replaced
+    public void compact() throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("The model was not opened with a feedback log");
+        }
+        writer.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The model is closed");
+            }
+            applyPending();
+            writeSnapshot(snapshotFile, generation + 1);
+            generation++;
+            log.reset(generation); // Until this, open finds an older log and discards it
+        } finally {
+            writer.unlock();
+        }
+        drain(); // Feedback that queued up meanwhile
+    }
+
+    // Compacts every period, on a background thread, whenever the log has records, until close
+    // A failure stops the schedule and is thrown by the returned future. Starting again replaces
+    // the schedule
+    public ScheduledFuture<?> startCompaction(long period, TimeUnit unit) {
+        if (log == null) {
+            throw new IllegalStateException("The model was not opened with a feedback log");
+        }
+        ScheduledFuture<?> previous = compaction;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        compaction = COMPACTION.scheduleWithFixedDelay(() -> {
+            try {
+                compactIfLogged();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, period, period, unit);
+        return compaction;
+    }
+
+    // Compacts if the log has records, unless the model was closed before the lock was taken
+    private void compactIfLogged() throws IOException {
+        writer.lock();
+        try {
+            if (!closed && log.size() > FeedbackLog.HEADER_BYTES) {
+                compact();
+            }
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Stops the scheduled compaction, applies queued feedback and forces the log to the device
+    public void close() throws IOException {
+        ScheduledFuture<?> compaction = this.compaction;
+        if (compaction != null) {
+            compaction.cancel(false); // A run already under way finds the model closed
+        }
+        writer.lock();
+        try {
+            applyPending();
+            closed = true;
+            if (log != null) {
+                log.close();
+            }
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Writes a new file and moves it over the old one, so the file is never seen half written
+    // and a model mapping the old file keeps reading it
+    private void writeSnapshot(String snapshotFile, long generation) throws IOException {
+        Path temporary = Paths.get(snapshotFile + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            trie.writeSnapshot(out);
+            ngrams.write(out);
+            out.writeLong(generation);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, Paths.get(snapshotFile),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Loads words from the word file into the Trie, each once however many ways it is written
+    // The file is read as UTF-8, like old messages. A line holding no word or more than one, after
+    // folding, is skipped
+    private void loadWordsIntoTrie(String wordFile) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(wordFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String word = TextNormalizer.word(line);
+                if (word != null && trie.wordId(word) < 0) {
+                    trie.insert(word); // Inserts words into Trie
+                }
+            }
+        }
+    }
+
+    // Processes old messages to populate the Trie and n-gram models
+    // The file is tokenized in parallel chunks, see CorpusIngester
+    public void processOldMessages(String oldMessageFile) throws IOException {
+        writer.lock();
+        try {
+            new CorpusIngester(trie, ngrams).ingest(oldMessageFile);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Prunes unused words; the Trie needs no separate compression, its edges are already merged
+    public void pruneUnusedWords() {
+        writer.lock();
+        try {
+            trie.pruneUnused(); // Removes low-frequency or unconfirmed words
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Prunes unused words, then evicts the least likely ones until at most maxWords stay in the Trie
+    // Evicted words are still known, and suggested only for prefixes no kept word has
+    public int pruneUnusedWords(int maxWords) {
+        writer.lock();
+        try {
+            trie.pruneUnused();
+            return trie.evict(maxWords);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    // Lets guesses look past up to maxEdits mistyped, missing or extra letters, 0 for exact prefixes only
+    // Suggestions that need edits only fill the slots the exact ones leave, see Trie.suggest
+    public void setMaxEdits(int maxEdits) {
+        if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+            throw new IllegalArgumentException("Edits must be between 0 and " + MAX_EDITS + ": " + maxEdits);
+        }
+        this.maxEdits = maxEdits;
+    }
+
+    public int maxEdits() {
+        return maxEdits;
+    }
+
+    // The Trie and n-gram models, for offline tools such as WeightTuner
+    Trie trie() {
+        return trie;
+    }
+
+    NGramModel ngrams() {
+        return ngrams;
+    }
+
+    // Starts a cursor for a new session
+    Trie.PrefixCursor newCursor() {
+        return trie.new PrefixCursor();
+    }
+
+    // Returns the ID of a word, or -1 if the model does not know it
+    int wordId(String word) {
+        return word != null ? trie.wordId(word) : -1;
+    }
+
+    // Looks up suggestions without taking any lock, writing them into the array from offset
+    // Returns how many there are
+    int suggest(Trie.PrefixCursor cursor, int limit, int beforePrevious, int previous, String[] into, int offset) {
+        return trie.suggest(cursor, limit, maxEdits, beforePrevious, previous, ngrams, into, offset);
+    }
+
+    // Queues a finished word and applies the queue unless another session is already doing so
+    void learn(String word, boolean guessed, String previous, String beforePrevious) {
+        pending.add(new Feedback(word, guessed, previous, beforePrevious));
+        drain();
+    }
+
+    // Applies the queue unless another thread is already doing so
+    private void drain() {
+        // Re-check after unlocking, in case feedback arrived just as the last writer finished
+        while (!pending.isEmpty() && writer.tryLock()) {
+            try {
+                applyPending();
+            } finally {
+                writer.unlock();
+            }
+        }
+    }
+
+    // Applies queued feedback, with the writer lock held
+    // With a log, each record is buffered before its update is applied and the batch written in one go
+    private void applyPending() {
+        try {
+            Feedback feedback;
+            while ((feedback = pending.poll()) != null) {
+                if (log != null) {
+                    log.append(feedback);
+                }
+                apply(feedback);
+            }
+            if (log != null) {
+                log.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Learns one finished word
+    private void apply(Feedback feedback) {
+        String word = feedback.word;
+        int id;
+        if (feedback.guessed) {
+            id = trie.wordId(word);
+        } else {
+            id = trie.insert(word); // Insert the correct word into Trie
+            trie.confirmWord(word); // Mark the word as confirmed
+        }
+
+        // Learns the n-grams of the new messages too
+        int previous = wordId(feedback.previous);
+        int beforePrevious = wordId(feedback.beforePrevious);
+        if (previous >= 0) {
+            ngrams.addBigram(previous, id);
+        }
+        if (beforePrevious >= 0 && previous >= 0) {
+            ngrams.addTrigram(beforePrevious, previous, id);
+        }
+        trie.ngramsChanged(word, previous, ngrams); // Its weights after previous went up
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of SmartWordModel Class
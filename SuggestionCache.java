@@ -0,0 +1,350 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Bounded cache of suggestion lists keyed by context and prefix
+// Least recently used entries are evicted once the cache is full, and a changed word only
+// touches the entries for the prefixes along its own path. Entries are split into segments by
+// prefix, each with its own lock, so sessions on different prefixes do not contend.
+// Every change to a segment's entries moves its generation on, and a lookup only stores its result
+// if the generation it read before looking at the Trie is still current, so a result computed
+// while the Trie changed is never cached. Writers change the Trie before invalidating.
+// A hit allocates nothing: the prefix is matched as a CharSequence through a probe key owned by
+// the segment, and the suggestions are copied into the caller's array
+class SuggestionCache {
+    // Inner Classes of SuggestionCache
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Weigher inner interface to recompute a word's weight in the context of an entry
+    interface Weigher {
+       double weigh(int beforePrevious, int previous);
+    }
+
+    // Key inner class to hold the context word IDs, prefix and size of a lookup
+    // Stored keys hold the prefix as a String; a segment's probe is set to the caller's chars instead
+    private static final class Key {
+       int beforePrevious;
+       int previous;
+       CharSequence prefix;
+       int limit;
+       int hash;
+
+       Key(int beforePrevious, int previous, CharSequence prefix, int prefixHash, int limit) {
+          set(beforePrevious, previous, prefix, prefixHash, limit);
+       }
+
+       void set(int beforePrevious, int previous, CharSequence prefix, int prefixHash, int limit) {
+          this.beforePrevious = beforePrevious;
+          this.previous = previous;
+          this.prefix = prefix;
+          this.limit = limit;
+          this.hash = ((prefixHash * 31 + beforePrevious) * 31 + previous) * 31 + limit;
+       }
+
+       String prefix() {
+          return (String) prefix;
+       }
+
+       @Override
+       public boolean equals(Object o) {
+          if (!(o instanceof Key)) {
+             return false;
+          }
+          Key other = (Key) o;
+          return hash == other.hash && beforePrevious == other.beforePrevious && previous == other.previous
+                 && limit == other.limit && sameChars(prefix, other.prefix);
+       }
+
+       @Override
+       public int hashCode() {
+          return hash;
+       }
+    }
+
+    // Entry inner class to hold the suggestions of a lookup with their weights
+    private static final class Entry {
+       String[] words;
+       double[] weights; // Highest first, parallel to words
+
+       Entry(String[] words, double[] weights) {
+          this.words = words;
+          this.weights = weights;
+       }
+    }
+
+    // Segment inner class to hold the entries of the prefixes hashed to it, under its own lock
+    // Every key of a prefix lives in one segment, so invalidating a prefix touches a single segment
+    private static final class Segment {
+       private final Map<Key, Entry> entries; // In access order, least recently used first
+       private final Map<String, Set<Key>> keysByPrefix = new HashMap<>(); // Entries of every prefix, across contexts
+       private final int capacity;
+       private final Key probe = new Key(0, 0, "", 0, 0); // Looks up the caller's prefix without a copy
+       private volatile long generation = 0; // Invalidations, raises and clears so far
+       private long hits = 0;
+       private long misses = 0;
+       private long evictions = 0;
+       private long invalidations = 0;
+
+       Segment(int capacity) {
+          this.capacity = capacity;
+          this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+             @Override
+             protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= Segment.this.capacity) {
+                   return false;
+                }
+                forget(eldest.getKey());
+                evictions++;
+                return true;
+             }
+          };
+       }
+
+       // Copies the suggestions into the array from offset and returns how many, or -1 on a miss
+       synchronized int get(int beforePrevious, int previous, CharSequence prefix, int prefixHash, int limit,
+                            String[] into, int offset) {
+          probe.set(beforePrevious, previous, prefix, prefixHash, limit);
+          Entry entry = entries.get(probe);
+          probe.prefix = ""; // Not keeping the caller's chars
+          if (entry == null) {
+             misses++;
+             return -1;
+          }
+          hits++;
+          System.arraycopy(entry.words, 0, into, offset, entry.words.length);
+          return entry.words.length;
+       }
+
+       // Stores an entry unless the segment changed since the caller read generation
+       synchronized void put(Key key, Entry entry, long generation) {
+          if (generation != this.generation) {
+             return; // Computed from a Trie that has changed since
+          }
+          if (entries.put(key, entry) == null) {
+             keysByPrefix.computeIfAbsent(key.prefix(), k -> new HashSet<>()).add(key);
+          }
+       }
+
+       synchronized void invalidate(String prefix) {
+          generation++;
+          Set<Key> keys = keysByPrefix.remove(prefix);
+          if (keys != null) {
+             entries.keySet().removeAll(keys);
+             invalidations += keys.size();
+          }
+       }
+
+       synchronized void clear() {
+          generation++;
+          invalidations += entries.size();
+          entries.clear();
+          keysByPrefix.clear();
+       }
+
+       synchronized void raise(String prefix, String word, int previous, Weigher weigher) {
+          generation++;
+          Set<Key> keys = keysByPrefix.get(prefix);
+          if (keys == null) {
+             return;
+          }
+          for (Key key : keys) {
+             if (key.previous == previous) {
+                SuggestionCache.raise(entries.get(key), key.limit, word,
+                      weigher.weigh(key.beforePrevious, key.previous));
+             }
+          }
+       }
+
+       synchronized int size() {
+          return entries.size();
+       }
+
+       // Removes an evicted key from the prefix index
+       private void forget(Key key) {
+          Set<Key> keys = keysByPrefix.get(key.prefix());
+          keys.remove(key);
+          if (keys.isEmpty()) {
+             keysByPrefix.remove(key.prefix());
+          }
+       }
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Inner Classes
+
+    // SuggestionCache class
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    private static final int SEGMENTS = 16; // Power of two, so a prefix hash picks one with a mask
+
+    private final Segment[] segments;
+    private final int capacity;
+
+    // Creates a cache holding at most capacity suggestion lists
+    // The capacity is split evenly across the segments, each evicting its own least recently used
+    public SuggestionCache(int capacity) {
+        this.capacity = capacity;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+        }
+    }
+
+    // Maximum number of suggestion lists held, 0 when the cache is disabled
+    public int capacity() {
+        return capacity;
+    }
+
+    // Copies the cached suggestions for a lookup into the array from offset and returns how many,
+    // or -1 on a miss
+    public int get(int beforePrevious, int previous, CharSequence prefix, int limit, String[] into, int offset) {
+        int hash = hash(prefix);
+        return segment(hash).get(beforePrevious, previous, prefix, hash, limit, into, offset);
+    }
+
+    // Generation of the segment holding a prefix, to be read before the lookup whose result is put
+    public long generation(CharSequence prefix) {
+        return segment(hash(prefix)).generation;
+    }
+
+    // Stores the first size suggestions of a lookup along with their weights, highest first,
+    // unless an entry for the prefix changed since the caller read generation
+    public void put(int beforePrevious, int previous, CharSequence prefix, int limit, String[] words,
+                    double[] weights, int size, long generation) {
+        if (capacity == 0) {
+            return;
+        }
+        int hash = hash(prefix);
+        segment(hash).put(new Key(beforePrevious, previous, prefix.toString(), hash, limit),
+                new Entry(Arrays.copyOf(words, size), Arrays.copyOf(weights, size)), generation);
+    }
+
+    // Drops every entry whose prefix leads to the word, in any context
+    public void invalidate(String word) {
+        for (int length = 1; length <= word.length(); length++) {
+            String prefix = word.substring(0, length);
+            segment(prefix.hashCode()).invalidate(prefix);
+        }
+    }
+
+    // Re-ranks the word in the entries after the given previous word whose prefix leads to it,
+    // for when only its weight in those contexts went up
+    // Only prefixes whose lookup weighs the word are touched, candidate[length] telling which: with
+    // the Trie's index a lookup weighs just the best words under its prefix, not every word
+    public void raise(String word, boolean[] candidate, int previous, Weigher weigher) {
+        for (int length = 1; length <= word.length(); length++) {
+            if (!candidate[length]) {
+                continue;
+            }
+            String prefix = word.substring(0, length);
+            segment(prefix.hashCode()).raise(prefix, word, previous, weigher);
+        }
+    }
+
+    // Drops every entry, for changes too broad to track word by word
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long hits() {
+        long hits = 0;
+        for (Segment segment : segments) {
+            hits += segment.hits;
+        }
+        return hits;
+    }
+
+    public long misses() {
+        long misses = 0;
+        for (Segment segment : segments) {
+            misses += segment.misses;
+        }
+        return misses;
+    }
+
+    public long evictions() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            evictions += segment.evictions;
+        }
+        return evictions;
+    }
+
+    public long invalidations() {
+        long invalidations = 0;
+        for (Segment segment : segments) {
+            invalidations += segment.invalidations;
+        }
+        return invalidations;
+    }
+
+    private Segment segment(int prefixHash) {
+        return segments[(prefixHash ^ (prefixHash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    // The same hash as String.hashCode, without making a String
+    private static int hash(CharSequence prefix) {
+        int hash = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            hash = hash * 31 + prefix.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean sameChars(CharSequence a, CharSequence b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Moves a word up an entry, adding it if it now beats the weakest suggestion
+    // Every other weight in the entry is unchanged and the lookup weighs the word, so this matches a
+    // fresh lookup
+    private static void raise(Entry entry, int limit, String word, double weight) {
+        String[] words = entry.words.clone(); // A copy, since a reader may be copying the old one
+        double[] weights = entry.weights;
+        int i = Arrays.asList(words).indexOf(word);
+        if (i < 0) {
+            if (words.length == limit && !ranksAbove(word, weight, words[limit - 1], weights[limit - 1])) {
+                return; // Still not good enough
+            }
+            i = Math.min(words.length, limit - 1);
+            if (i == words.length) {
+                words = Arrays.copyOf(words, i + 1);
+                weights = Arrays.copyOf(weights, i + 1);
+            }
+        }
+        while (i > 0 && ranksAbove(word, weight, words[i - 1], weights[i - 1])) {
+            words[i] = words[i - 1];
+            weights[i] = weights[i - 1];
+            i--;
+        }
+        words[i] = word;
+        weights[i] = weight;
+        entry.words = words;
+        entry.weights = weights;
+    }
+
+    // Heavier first, ties alphabetically, the order a lookup ranks its words in
+    private static boolean ranksAbove(String word, double weight, String other, double otherWeight) {
+        return weight > otherWeight || (weight == otherWeight && word.compareTo(other) < 0);
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of SuggestionCache Class
@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Models of many tenants, such as authors or domains, served side by side
+// Every tenant's model sits on one dictionary snapshot, mapped read-only once and never written,
+// and keeps in memory only its own part: the words its old messages and feedback taught it, with
+// dictionary words among them copied out of the snapshot, and its n-grams. A lookup merges the
+// two, so a tenant costs what it learned rather than a copy of the dictionary.
+// Sessions of a tenant type on new SmartWord(get(tenant)), sharing its model
+class TenantModels {
+    private final MappedTrie dictionary;
+    private final Map<String, SmartWordModel> tenants = new ConcurrentHashMap<>();
+
+    private TenantModels(MappedTrie dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    // Builds the dictionary from a word file, writes it to snapshotFile and serves tenants from it
+    public static TenantModels build(String wordFile, String snapshotFile) throws IOException {
+        new SmartWordModel(wordFile).saveSnapshot(snapshotFile);
+        return open(snapshotFile);
+    }
+
+    // Serves tenants from a snapshot written by saveSnapshot, usually of the bare dictionary
+    public static TenantModels open(String snapshotFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshotFile), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new TenantModels(new MappedTrie(buffer));
+    }
+
+    // Adds a tenant that has learned nothing yet, replacing any model it had
+    public SmartWordModel add(String tenant) {
+        SmartWordModel model = SmartWordModel.onSharedDictionary(dictionary);
+        tenants.put(tenant, model);
+        return model;
+    }
+
+    // Adds a tenant and learns its old messages, replacing any model it had
+    // The tenant is only served once they are learned
+    public SmartWordModel add(String tenant, String oldMessageFile) throws IOException {
+        SmartWordModel model = SmartWordModel.onSharedDictionary(dictionary);
+        model.processOldMessages(oldMessageFile);
+        tenants.put(tenant, model);
+        return model;
+    }
+
+    // The tenant's model, null if there is no such tenant
+    public SmartWordModel get(String tenant) {
+        return tenants.get(tenant);
+    }
+
+    // Stops serving a tenant, returning its model or null
+    public SmartWordModel remove(String tenant) {
+        return tenants.remove(tenant);
+    }
+
+    public Set<String> tenants() {
+        return tenants.keySet();
+    }
+
+    // Words in the shared dictionary
+    public int dictionaryWords() {
+        return dictionary.wordCount();
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of TenantModels Class
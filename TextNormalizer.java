@@ -0,0 +1,125 @@
+import java.text.Normalizer;
+
+// Which characters make up words and how they are folded, shared by every path words come in on:
+// the word file, old messages, typed letters and feedback
+// A word is a run of letters and apostrophes, lowercased, without apostrophes at either end, so
+// quotes around a word are dropped but it's and don't keep theirs. Every other character separates
+// words. ASCII characters are looked up in a table built once; others take the Unicode path, where
+// text is brought into NFC first, so an accented letter is one word whether it came precomposed or
+// followed by combining marks. Letters outside the Basic Multilingual Plane are folded as code
+// points, and a typographic apostrophe counts as an apostrophe
+class TextNormalizer {
+    static final char APOSTROPHE = '\'';
+
+    private static final char[] ASCII = new char[128]; // Folded form of each ASCII character, 0 for a separator
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII[c] = c;
+            ASCII[c - 'a' + 'A'] = c;
+        }
+        ASCII[APOSTROPHE] = APOSTROPHE;
+    }
+
+    private TextNormalizer() {
+    }
+
+    // Folded form of a character, or 0 if it separates words
+    // A surrogate is 0, since only the code point of a whole pair is a letter
+    static char fold(char c) {
+        return c < ASCII.length ? ASCII[c] : (char) foldUnicode(c);
+    }
+
+    // Folded form of a code point, or 0 if it separates words
+    static int fold(int codePoint) {
+        return codePoint < ASCII.length ? ASCII[codePoint] : foldUnicode(codePoint);
+    }
+
+    // Lone surrogates are separators
+    private static int foldUnicode(int codePoint) {
+        if (codePoint == '\u2019' || codePoint == '\u02BC') {
+            return APOSTROPHE; // Right single quotation mark and modifier letter apostrophe
+        }
+        if (Character.isLetter(codePoint)) {
+            return Character.toLowerCase(codePoint);
+        }
+        int type = Character.getType(codePoint);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+                || type == Character.ENCLOSING_MARK ? codePoint : 0;
+    }
+
+    // Whether a code point is dropped around a single word
+    private static boolean isTrimmed(int codePoint) {
+        int f = fold(codePoint);
+        return f == 0 || f == APOSTROPHE;
+    }
+
+    // Folds text holding a single word, such as a line of the word file or a word given as
+    // feedback, ignoring separators and apostrophes around it
+    // Returns null if the text holds no word or more than one
+    static String word(CharSequence text) {
+        if (!isAscii(text)) {
+            text = Normalizer.normalize(text, Normalizer.Form.NFC);
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < end && isTrimmed(Character.codePointAt(text, start))) {
+            start += Character.charCount(Character.codePointAt(text, start));
+        }
+        while (end > start && isTrimmed(Character.codePointBefore(text, end))) {
+            end -= Character.charCount(Character.codePointBefore(text, end));
+        }
+        if (start == end) {
+            return null;
+        }
+        boolean folded = true; // Whether the word is already in folded form
+        for (int i = start; i < end; ) {
+            int c = Character.codePointAt(text, i);
+            int f = fold(c);
+            if (f == 0) {
+                return null;
+            }
+            folded &= f == c;
+            i += Character.charCount(c);
+        }
+        if (folded) {
+            return text.subSequence(start, end).toString(); // The String itself when it is all word
+        }
+        StringBuilder word = new StringBuilder(end - start);
+        for (int i = start; i < end; ) {
+            int c = Character.codePointAt(text, i);
+            word.appendCodePoint(fold(c));
+            i += Character.charCount(c);
+        }
+        return word.toString();
+    }
+
+    // Folds a word being typed, letter by letter, into the form word gives it, once a character
+    // outside ASCII has been appended: a combining mark joins the letter before it and a surrogate
+    // pair is folded as one code point. Characters that separate words are kept as typed
+    // Returns whether any character before the last one changed, so the word must be looked up anew
+    static boolean refold(StringBuilder typed) {
+        String before = typed.toString();
+        String normalized = Normalizer.normalize(before, Normalizer.Form.NFC);
+        typed.setLength(0);
+        for (int i = 0; i < normalized.length(); ) {
+            int c = normalized.codePointAt(i);
+            int f = fold(c);
+            typed.appendCodePoint(f != 0 ? f : c);
+            i += Character.charCount(c);
+        }
+        int last = before.length() - 1;
+        return typed.length() != before.length() || !before.regionMatches(0, typed.toString(), 0, last);
+    }
+
+    private static boolean isAscii(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= ASCII.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of TextNormalizer Class
@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Checks that every path words come in on gives decomposed text the same words as precomposed text
+// Exits with status 1 on the first failure. Usage: java TextNormalizerTest
+class TextNormalizerTest {
+    private static final String PRECOMPOSED = "\u00E9t\u00E9"; // ete with acute accents as single characters
+    private static final String DECOMPOSED = "e\u0301te\u0301"; // The same word with combining accents
+
+    public static void main(String[] args) throws IOException {
+        check("precomposed word", PRECOMPOSED, TextNormalizer.word(PRECOMPOSED));
+        check("decomposed word", PRECOMPOSED, TextNormalizer.word(DECOMPOSED));
+        check("decomposed capitals", PRECOMPOSED, TextNormalizer.word("E\u0301TE\u0301"));
+        check("enclosing mark", "a\u20DD", TextNormalizer.word("a\u20DD"));
+        check("supplementary letter", "\uD801\uDC28x", TextNormalizer.word("\uD801\uDC00x")); // Deseret long I
+        check("separator", null, TextNormalizer.word(DECOMPOSED + " " + PRECOMPOSED));
+
+        // Old messages: both forms count as one word, and the surrounding words are unchanged
+        Path messages = Files.createTempFile("normalizer", ".txt");
+        try {
+            Files.write(messages, ("summer " + DECOMPOSED + " and " + PRECOMPOSED + " \uD801\uDC00x\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            Trie trie = new Trie();
+            new CorpusIngester(trie, new NGramModel()).ingest(messages.toString());
+            int[] frequency = new int[1];
+            trie.visitWord(PRECOMPOSED, (word, id, f, confirmed) -> frequency[0] = f);
+            check("ingested frequency", "2", Integer.toString(frequency[0]));
+            check("ingested words", "4", Integer.toString(trie.wordCount()));
+            check("ingested supplementary letter", "true",
+                    Boolean.toString(trie.visitWord("\uD801\uDC28x", (word, id, f, confirmed) -> { })));
+        } finally {
+            Files.delete(messages);
+        }
+
+        // Typing: a combining mark joins the letter typed before it, so the precomposed word is found
+        Path words = Files.createTempFile("normalizer", ".txt");
+        try {
+            Files.write(words, (PRECOMPOSED + "\n").getBytes(StandardCharsets.UTF_8));
+            SmartWord session = new SmartWord(words.toString());
+            session.guess('e', 0, 0);
+            String[] guesses = session.guess('\u0301', 1, 0);
+            check("typed decomposed", PRECOMPOSED, guesses[0]);
+        } finally {
+            Files.delete(words);
+        }
+        System.out.println("TextNormalizerTest passed");
+    }
+
+    private static void check(String what, String expected, String actual) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            System.out.println(what + ": expected " + escape(expected) + " but was " + escape(actual));
+            System.exit(1);
+        }
+    }
+
+    // Shows characters outside ASCII as escapes, whatever the console's encoding
+    private static String escape(String text) {
+        if (text == null) {
+            return "null";
+        }
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            escaped.append(c < 0x80 ? String.valueOf(c) : String.format("\\u%04X", (int) c));
+        }
+        return escaped.toString();
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of TextNormalizerTest Class
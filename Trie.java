@@ -1,31 +1,407 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 // Trie structure for storing words and retrieving suggestions
 class Trie {
     // Inner Classes of Trie
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     // TrieNode inner class to hold the data for each node
+    // A node hangs off its parent by an edge of one or more characters, a slice of the labels
+    // arena, so a chain of single-child nodes is a single node (a radix tree).
+    // The child and top arrays are never changed once published, only replaced, and an edge never
+    // changes at all, so readers on other threads can walk the Trie without locks while a single
+    // writer updates it
     private static class TrieNode {
-       Map<Character, TrieNode> children = new TreeMap<>(); // Stores child nodes
-       boolean isWord = false; // Indicates if the node represents a complete word
+       private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+       private static final TrieNode[] NO_TOP = NO_CHILDREN;
+
+       final char label; // First character on the edge from the parent, its key among the siblings
+       final int labelStart; // The edge is labels[labelStart] up to labels[labelStart + labelLength - 1]
+       final int labelLength; // 0 only for the root
+       volatile TrieNode[] children = NO_CHILDREN; // Stores child nodes, sorted by label and sized exactly
+       volatile String word = null; // The complete word ending at this node, null if the node is not a word
+       int id = -1; // ID of the word, the key for n-gram counts
        int frequency = 0; // Tracks how often the word appears
        int confirmed = 0; // Tracks how often the word is confirmed by feedback
+       volatile TrieNode[] top = NO_TOP; // Best word nodes in this subtree, highest score first, sized exactly (indexed mode only)
+       float best = 0; // Highest unigram score in this subtree rounded up, bounding what it can offer (unindexed mode only)
+       int lastUsed = 0; // Clock reading when the word was last inserted or confirmed
+
+       TrieNode(char label, int labelStart, int labelLength) {
+          this.label = label;
+          this.labelStart = labelStart;
+          this.labelLength = labelLength;
+       }
+
+       // Finds the child whose edge starts with c, or null
+       TrieNode child(char c) {
+          TrieNode[] children = this.children; // Read once, a writer may replace it meanwhile
+          int i = indexOf(children, c);
+          return i >= 0 ? children[i] : null;
+       }
+
+       // Puts a child at its sorted position, replacing any child with the same label
+       void putChild(TrieNode child) {
+          int i = indexOf(children, child.label);
+          if (i >= 0) {
+             TrieNode[] replaced = children.clone();
+             replaced[i] = child;
+             children = replaced;
+          } else {
+             putChild(-i - 1, child);
+          }
+       }
+
+       private void putChild(int at, TrieNode child) {
+          TrieNode[] grown = new TrieNode[children.length + 1];
+          System.arraycopy(children, 0, grown, 0, at);
+          grown[at] = child;
+          System.arraycopy(children, at, grown, at + 1, children.length - at);
+          children = grown;
+       }
+
+       // Removes the child whose edge starts with c, if any
+       void removeChild(char c) {
+          int i = indexOf(children, c);
+          if (i < 0) {
+             return;
+          }
+          TrieNode[] shrunk = children.length == 1 ? NO_CHILDREN : new TrieNode[children.length - 1];
+          System.arraycopy(children, 0, shrunk, 0, i);
+          System.arraycopy(children, i + 1, shrunk, i, children.length - i - 1);
+          children = shrunk;
+       }
+
+       // Binary search over the labels, returning -(insertion point) - 1 when absent
+       private static int indexOf(TrieNode[] children, char c) {
+          int low = 0;
+          int high = children.length - 1;
+          while (low <= high) {
+             int mid = (low + high) >>> 1;
+             char label = children[mid].label;
+             if (label < c) {
+                low = mid + 1;
+             } else if (label > c) {
+                high = mid - 1;
+             } else {
+                return mid;
+             }
+          }
+          return -(low + 1);
+       }
+    }
+
+    // WordVisitor inner interface to receive words with their IDs and counts
+    interface WordVisitor {
+       void visit(String word, int id, int frequency, int confirmed);
+    }
+
+    // Selection inner class to keep the best words of a lookup as candidates stream in
+    // Ties go to the word first in alphabetical order, wherever it is kept, so a Trie on a snapshot
+    // suggests what the Trie it was written from did, whichever part a word was found in.
+    // Snapshot and evicted words are kept as their node or index and only read once they make
+    // the final cut, since reading one builds a new String; a tie compares them in place.
+    // A cursor reuses its selection.
+    // Excluded word IDs are passed over, for a fuzzy lookup adding to words already suggested.
+    // A word offered twice is kept once, at its higher weight: a snapshot top list is reordered in
+    // place, so a lookup reading it mid-update can meet the same entry twice
+    private static class Selection {
+       private static final byte HEAP = 0;
+       private static final byte BASE = 1;
+       private static final byte COLD = 2;
+
+       final String[] words; // Null for snapshot and evicted words until resolve
+       final double[] weights; // Highest first, parallel to words
+       final int[] ids;
+       final byte[] sources;
+       final int[] refs; // Snapshot node or evicted index of the word
+       private final MappedTrie base;
+       private ColdWords cold = ColdWords.EMPTY; // The cold tier of the current lookup
+       private final int[] excluded;
+       private int excludedCount = 0;
+       int limit; // Words kept, at most words.length
+       int size = 0;
+       int visited = 0; // Nodes and list entries looked at
+       int scored = 0; // Candidates weighed
+
+       Selection(int limit, MappedTrie base) {
+          this.base = base;
+          words = new String[limit];
+          weights = new double[limit];
+          ids = new int[limit];
+          sources = new byte[limit];
+          refs = new int[limit];
+          excluded = new int[limit];
+          this.limit = limit;
+       }
+
+       // Empties the selection for another lookup, whose evicted words are read from cold
+       void clear(ColdWords cold) {
+          this.cold = cold;
+          restart(words.length);
+          excludedCount = 0;
+          visited = 0;
+          scored = 0;
+       }
+
+       // Drops the kept words to select up to limit others, keeping the exclusions
+       void restart(int limit) {
+          Arrays.fill(words, 0, size, null);
+          size = 0;
+          this.limit = limit;
+       }
+
+       // Passes over the word from now on
+       void exclude(int id) {
+          excluded[excludedCount++] = id;
+       }
+
+       // Whether a word of this weight could be kept, so a bound can rule out many at once
+       // A word as heavy as the weakest kept may still win the tie
+       boolean admits(double weight) {
+          return size < limit || (size > 0 && weight >= weights[size - 1]);
+       }
+
+       void offer(String word, int id, double weight) {
+          offer(HEAP, word, id, -1, weight);
+       }
+
+       void offerBase(int node, int id, double weight) {
+          offer(BASE, null, id, node, weight);
+       }
+
+       void offerCold(int i, int id, double weight) {
+          offer(COLD, null, id, i, weight);
+       }
+
+       private void offer(byte source, String word, int id, int ref, double weight) {
+          scored++;
+          if (!admits(weight)) {
+             return;
+          }
+          for (int i = 0; i < excludedCount; i++) {
+             if (excluded[i] == id) {
+                return;
+             }
+          }
+          for (int i = 0; i < size; i++) {
+             if (ids[i] == id) {
+                if (weight <= weights[i]) {
+                   return;
+                }
+                remove(i); // Offered again at a higher weight, so it moves up
+                break;
+             }
+          }
+          if (size == limit && !ranksAbove(source, word, ref, weight, size - 1)) {
+             return; // Lost the tie
+          }
+          int i = size < limit ? size++ : size - 1; // Replace the weakest once full
+          while (i > 0 && ranksAbove(source, word, ref, weight, i - 1)) {
+             words[i] = words[i - 1];
+             weights[i] = weights[i - 1];
+             ids[i] = ids[i - 1];
+             sources[i] = sources[i - 1];
+             refs[i] = refs[i - 1];
+             i--;
+          }
+          words[i] = word;
+          weights[i] = weight;
+          ids[i] = id;
+          sources[i] = source;
+          refs[i] = ref;
+       }
+
+       private void remove(int i) {
+          size--;
+          System.arraycopy(words, i + 1, words, i, size - i);
+          System.arraycopy(weights, i + 1, weights, i, size - i);
+          System.arraycopy(ids, i + 1, ids, i, size - i);
+          System.arraycopy(sources, i + 1, sources, i, size - i);
+          System.arraycopy(refs, i + 1, refs, i, size - i);
+          words[size] = null;
+       }
+
+       // Whether a candidate goes before kept word j: heavier, or as heavy and first alphabetically
+       private boolean ranksAbove(byte source, String word, int ref, double weight, int j) {
+          if (weight != weights[j]) {
+             return weight > weights[j];
+          }
+          int length = length(source, word, ref);
+          int other = length(sources[j], words[j], refs[j]);
+          for (int k = 0; k < Math.min(length, other); k++) {
+             char a = charAt(source, word, ref, k);
+             char b = charAt(sources[j], words[j], refs[j], k);
+             if (a != b) {
+                return a < b;
+             }
+          }
+          return length < other;
+       }
+
+       private int length(byte source, String word, int ref) {
+          return source == HEAP ? word.length() : source == BASE ? base.wordLength(ref) : cold.length(ref);
+       }
+
+       private char charAt(byte source, String word, int ref, int k) {
+          return source == HEAP ? word.charAt(k) : source == BASE ? base.wordChar(ref, k) : cold.charAt(ref, k);
+       }
+
+       // Reads the kept words that are still only a node or an index
+       void resolve() {
+          for (int i = 0; i < size; i++) {
+             if (sources[i] == BASE) {
+                words[i] = base.word(refs[i]);
+             } else if (sources[i] == COLD) {
+                words[i] = cold.word(refs[i]);
+             }
+             sources[i] = HEAP;
+          }
+       }
     }
 
-    // WordScore inner class to hold the weights of each word
-    private static class WordScore {
-       String word;
-       double weight;
+    // FuzzySearch inner class to hold the edit distance rows and the matches of a fuzzy lookup
+    // Row d holds the edit distances between the first d characters along a path and every prefix
+    // of the typed prefix, so a branch is cut as soon as no entry of its row is within the bound
+    private static class FuzzySearch {
+       int[][] rows = new int[0][];
+       int length; // Characters in the typed prefix
+       TrieNode[] nodes = new TrieNode[16]; // Subtrees whose path comes within the bound
+       int[] nodeEdits = new int[16]; // Fewest edits along the path to each
+       int nodeCount = 0;
+       int[] baseNodes = new int[16]; // Same for the snapshot
+       int[] baseEdits = new int[16];
+       int baseCount = 0;
+
+       // Readies the rows for paths of up to length + maxEdits characters
+       void start(CharSequence prefix, int maxEdits) {
+          length = prefix.length();
+          int depths = length + maxEdits + 1;
+          if (rows.length < depths || rows[0].length < length + 1) {
+             rows = new int[Math.max(depths, 16)][Math.max(length + 1, 16)];
+          }
+          for (int j = 0; j <= length; j++) {
+             rows[0][j] = j;
+          }
+          nodeCount = 0;
+          baseCount = 0;
+       }
+
+       // Fills row depth from the one above for the next character along the path and returns
+       // its smallest entry
+       int step(CharSequence prefix, int depth, char c) {
+          int[] above = rows[depth - 1];
+          int[] row = rows[depth];
+          row[0] = depth;
+          int min = depth;
+          for (int j = 1; j <= length; j++) {
+             int edits = above[j - 1] + (prefix.charAt(j - 1) == c ? 0 : 1);
+             edits = Math.min(edits, Math.min(above[j], row[j - 1]) + 1);
+             row[j] = edits;
+             min = Math.min(min, edits);
+          }
+          return min;
+       }
+
+       // Edits between the path down to depth and the whole typed prefix
+       int edits(int depth) {
+          return rows[depth][length];
+       }
+
+       void add(TrieNode node, int edits) {
+          if (nodeCount == nodes.length) {
+             nodes = Arrays.copyOf(nodes, nodeCount * 2);
+             nodeEdits = Arrays.copyOf(nodeEdits, nodeCount * 2);
+          }
+          nodes[nodeCount] = node;
+          nodeEdits[nodeCount++] = edits;
+       }
 
-       WordScore(String word, double weight) {
-          this.word = word;
-          this.weight = weight;
+       void add(int baseNode, int edits) {
+          if (baseCount == baseNodes.length) {
+             baseNodes = Arrays.copyOf(baseNodes, baseCount * 2);
+             baseEdits = Arrays.copyOf(baseEdits, baseCount * 2);
+          }
+          baseNodes[baseCount] = baseNode;
+          baseEdits[baseCount++] = edits;
+       }
+
+       // Lets go of the nodes, which a writer may have replaced meanwhile
+       void finish() {
+          Arrays.fill(nodes, 0, nodeCount, null);
+       }
+    }
+
+    // PrefixCursor inner class to follow a prefix one keystroke at a time
+    public class PrefixCursor {
+       private TrieNode node = root; // Node whose edge the prefix ends on, null once it leaves the Trie
+       private int matched = 0; // Characters of that edge the prefix covers
+       private int baseNode = base != null ? base.root() : -1; // Same for the snapshot, -1 once it leaves it
+       private final StringBuilder prefix = new StringBuilder();
+       private Selection selection; // Reused by every lookup with the same limit
+       private FuzzySearch fuzzy; // Created on the first fuzzy lookup
+
+       // Moves the cursor one character down, costing a single child lookup at most
+       public void advance(char c) {
+          prefix.append(c);
+          if (baseNode >= 0) {
+             baseNode = base.child(baseNode, c);
+          }
+          if (node == null) {
+             return;
+          }
+          if (matched < node.labelLength) {
+             // Still inside the edge; every word below node extends the prefix either way
+             if (labels[node.labelStart + matched] == c) {
+                matched++;
+             } else {
+                node = null;
+             }
+          } else {
+             node = node.child(c);
+             matched = 1;
+          }
+       }
+
+       // Moves the cursor back to the empty prefix
+       public void reset() {
+          node = root;
+          matched = 0;
+          baseNode = base != null ? base.root() : -1;
+          prefix.setLength(0);
+       }
+
+       // Whether the prefix so far is a path in the Trie
+       public boolean matches() {
+          return node != null || baseNode >= 0;
+       }
+
+       public String prefix() {
+          return prefix.toString();
+       }
+
+       // An empty selection of limit words, for a lookup whose evicted words are read from cold
+       private Selection selection(int limit, ColdWords cold) {
+          if (selection == null || selection.words.length != limit) {
+             selection = new Selection(limit, base);
+          }
+          selection.clear(cold);
+          return selection;
+       }
+
+       private FuzzySearch fuzzy() {
+          if (fuzzy == null) {
+             fuzzy = new FuzzySearch();
+          }
+          return fuzzy;
        }
     }
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -34,143 +410,1118 @@ class Trie {
     // Trie class
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     private final TrieNode root;
-    private final Map<String, List<String>> suggestionCache; // Cache for frequently requested prefixes
+    // Lookups the suggestion cache holds, set with -Dsmartword.cacheSize; 0 disables it, which also
+    // makes a lookup allocate nothing, as only storing a result in the cache does
+    private static final int DEFAULT_CACHE_SIZE = Integer.getInteger("smartword.cacheSize", 4096);
+
+    private final SuggestionCache suggestionCache; // Cache for frequently requested prefixes
+    private final int topK; // Size of the per-node top list, 0 disables the index
+    private final MappedTrie base; // Snapshot holding the dictionary, null when it is built in memory
+    // Whether the snapshot is mapped read-only to be shared with other Tries. Its counts are then never
+    // written: a snapshot word is copied into memory once learned, and its snapshot entry passed over
+    private final boolean shared;
+    private final NGramModel.LongIntMap copied = new NGramModel.LongIntMap(); // IDs of those words, mapped to 1
+    private final ScoringWeights weights; // The snapshot's, when there is one
+    private int wordCount; // Number of word IDs handed out, including the snapshot's
+    private volatile char[] labels = new char[1024]; // Arena holding the characters of every edge
+    private int labelsSize = 0; // Characters in use, the rest of the arena is free
+    private volatile ColdWords cold = ColdWords.EMPTY; // Words evicted from the Trie
+    private int clock = 0; // Counts inserts and confirmations, to tell how recently a word was used
+    private volatile int nodeCount = 1; // Nodes in memory, the root included
+    private final LongAdder lookups = new LongAdder(); // Lookups the cache could not answer
+    private final LongAdder nodesVisited = new LongAdder(); // Nodes and list entries those lookups looked at
+    private final LongAdder candidatesScored = new LongAdder(); // Candidates those lookups weighed
 
     // Trie class default constructor
     public Trie() {
-       this.root = new TrieNode();
-       this.suggestionCache = new HashMap<>();
+       this(0);
+    }
+
+    // Creates a Trie that keeps the topK best words of every subtree on its nodes,
+    // so lookups cost O(prefix length + topK) instead of a walk of the whole subtree
+    public Trie(int topK) {
+       this(topK, ScoringWeights.DEFAULT);
+    }
+
+    // Creates an indexed Trie that weighs words with the given weights
+    public Trie(int topK, ScoringWeights weights) {
+       this(topK, null, DEFAULT_CACHE_SIZE, weights);
+    }
+
+    // Creates a Trie on top of a snapshot; words missing from the snapshot are kept in memory
+    // A snapshot mapped read-only is never written, so any number of Tries can share one
+    public Trie(int topK, MappedTrie base) {
+       this(topK, base, DEFAULT_CACHE_SIZE);
+    }
+
+    // Creates a Trie whose suggestion cache holds at most cacheSize lookups, 0 disables it
+    public Trie(int topK, MappedTrie base, int cacheSize) {
+       this(topK, base, cacheSize, base != null ? base.weights() : ScoringWeights.DEFAULT);
+    }
+
+    // Creates a Trie that weighs words with the given weights; a snapshot's top lists are ranked
+    // with the weights it was written with, so a Trie on one must use those
+    public Trie(int topK, MappedTrie base, int cacheSize, ScoringWeights weights) {
+       if (base != null && !weights.equals(base.weights())) {
+          throw new IllegalArgumentException("The snapshot was ranked with weights " + base.weights());
+       }
+       this.root = new TrieNode((char) 0, 0, 0);
+       this.suggestionCache = new SuggestionCache(cacheSize);
+       this.topK = topK;
+       this.base = base;
+       this.shared = base != null && base.isReadOnly();
+       this.weights = weights;
+       this.wordCount = base != null ? base.wordCount() : 0;
     }
 
     // Manipulation methods
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     
-    // Inserts a word into the Trie
-    public void insert(String word) {
+    // Inserts a word into the Trie and returns its ID
+    public int insert(String word) {
+        return insert(word, 1);
+    }
+
+    // Inserts count occurrences of a word at once and returns its ID
+    // The cache is invalidated after the change, so a lookup racing it cannot store what it saw before
+    public int insert(String word, int count) {
+        int id = count(word, count);
+        suggestionCache.invalidate(word);
+        return id;
+    }
+
+    // Counts occurrences of a word, in the snapshot or in memory, and returns its ID
+    private int count(String word, int count) {
+        int id = base != null && !shared ? base.increment(word, false, count) : -1;
+        if (id >= 0) {
+            return id; // Counted in the snapshot
+        }
+        TrieNode node = add(word);
+        int evicted = -1;
+        if (node.word == null) {
+            evicted = cold.indexOf(word);
+            int baseNode = shared && evicted < 0 ? base.find(word) : -1;
+            if (evicted >= 0) {
+                // Back from the cold tier with its ID and counts
+                node.id = cold.id(evicted);
+                node.frequency = cold.frequency(evicted);
+                node.confirmed = cold.confirmed(evicted);
+            } else if (baseNode >= 0) {
+                // Copied out of the shared snapshot, which this Trie must not write
+                node.id = base.wordId(baseNode);
+                node.frequency = base.frequency(baseNode);
+                node.confirmed = base.confirmed(baseNode);
+                copied.put(node.id, 1); // Before the word is published, so no lookup offers it twice
+            } else {
+                node.id = wordCount++;
+            }
+            node.word = word; // Published after the ID
+        }
+        node.frequency += count;
+        node.lastUsed = ++clock;
+        updateTop(word, node);
+        if (evicted >= 0) {
+            cold = cold.without(evicted); // Once the word is back, so it is never missing
+        }
+        return node.id;
+    }
+
+    // Puts a word back with the ID and counts it had in another Trie
+    private void restore(String word, int id, int frequency, int confirmed) {
+        TrieNode node = add(word);
+        node.id = id;
+        node.frequency = frequency;
+        node.confirmed = confirmed;
+        node.word = word;
+        updateTop(word, node);
+    }
+
+    // Returns the node where a word ends, adding and splitting edges as needed
+    private TrieNode add(String word) {
         TrieNode node = root;
-        for (char c : word.toCharArray()) {
-            node.children.putIfAbsent(c, new TrieNode());
-            node = node.children.get(c);
+        int i = 0;
+        while (i < word.length()) {
+            TrieNode child = node.child(word.charAt(i));
+            if (child == null) {
+                // The rest of the word becomes a single new edge
+                child = new TrieNode(word.charAt(i), appendLabel(word, i), word.length() - i);
+                node.putChild(child);
+                nodeCount++;
+                return child;
+            }
+            int matched = matchLabel(child, word, i);
+            if (matched < child.labelLength) {
+                child = split(node, child, matched); // The word leaves or ends inside the edge
+            }
+            node = child;
+            i += matched;
         }
-        node.isWord = true;
-        node.frequency++;
+        return node;
     }
 
-    // Confirms a word for reuse in later guesses
+    // Confirms a word for reuse in later guesses, invalidating the cache after the change like insert
     public void confirmWord(String word) {
+        confirm(word);
+        suggestionCache.invalidate(word);
+    }
+
+    private void confirm(String word) {
+        if (base != null && !shared && base.increment(word, true, 1) >= 0) {
+            return; // Counted in the snapshot
+        }
+        TrieNode node = find(word);
+        if ((node == null || node.word == null) && (cold.indexOf(word) >= 0 || shared && base.find(word) >= 0)) {
+            insert(word, 0); // Brings it back from the cold tier, or copies it out of the shared snapshot
+            node = find(word);
+        }
+        if (node == null || node.word == null) {
+            return; // Word does not exist
+        }
+        node.confirmed++;
+        node.lastUsed = ++clock;
+        updateTop(word, node);
+    }
+
+    // Re-ranks the word in the cached suggestions made after the previous word,
+    // for when the n-gram counts of the pair went up
+    public void ngramsChanged(String word, int previous, NGramModel ngrams) {
+        int id = wordId(word);
+        if (id < 0) {
+            return;
+        }
+        TrieNode node = find(word);
+        if ((node == null || node.word == null) && cold.indexOf(word) >= 0) {
+            // Evicted words are only weighed where no other word is, which the cache cannot tell
+            suggestionCache.invalidate(word);
+            return;
+        }
+        double unigramScore = unigramScore(word);
+        suggestionCache.raise(word, candidatePrefixes(word, node), previous,
+                (beforePrevious, p) -> weigh(id, unigramScore, p, ngrams.pair(beforePrevious, p), ngrams));
+    }
+
+    // Which prefixes of a word, by length, a lookup weighs it for: all of them without the index,
+    // otherwise those whose top lists offer it, see suggest. Node is where the word ends in memory, if it does
+    private boolean[] candidatePrefixes(String word, TrieNode wordNode) {
+        boolean[] candidate = new boolean[word.length() + 1];
+        if (topK == 0) {
+            Arrays.fill(candidate, true);
+            return candidate;
+        }
+        if (wordNode != null && wordNode.word == null) {
+            wordNode = null;
+        }
+        int baseWord = wordNode == null ? base.find(word) : -1; // In the snapshot, or ngramsChanged would not get here
+        PrefixCursor cursor = new PrefixCursor();
+        for (int length = 1; length <= word.length(); length++) {
+            cursor.advance(word.charAt(length - 1));
+            candidate[length] = offers(cursor.node, cursor.baseNode, wordNode, baseWord);
+        }
+        return candidate;
+    }
+
+    // Whether a lookup reaching these nodes offers the word, walking the top lists the way
+    // offerWordsUnder does, without the bound
+    private boolean offers(TrieNode node, int baseNode, TrieNode wordNode, int baseWord) {
+        TrieNode[] top = node != null ? node.top : TrieNode.NO_TOP;
+        int baseSize = baseNode >= 0 ? base.topSize(baseNode) : 0;
+        int limit = node != null && baseNode >= 0 ? topK : top.length + baseSize; // Only merged lists are cut
+        int i = 0;
+        int j = 0;
+        int taken = 0;
+        while (taken < limit && (i < top.length || j < baseSize)) {
+            int baseCandidate = j < baseSize ? base.top(baseNode, j) : -1;
+            if (baseCandidate >= 0 && copied(base.wordId(baseCandidate))) {
+                j++;
+                continue;
+            }
+            taken++;
+            if (baseCandidate < 0 || i < top.length && ranksAbove(top[i], baseCandidate)) {
+                if (top[i++] == wordNode) {
+                    return true;
+                }
+            } else if (base.top(baseNode, j++) == baseWord) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Hit, miss and eviction counters of the suggestion cache
+    public SuggestionCache suggestionCache() {
+        return suggestionCache;
+    }
+
+    // Number of lookups the suggestion cache could not answer
+    public long lookups() {
+        return lookups.sum();
+    }
+
+    // Nodes and top list entries looked at over all lookups
+    public long nodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    // Candidates weighed in context over all lookups
+    public long candidatesScored() {
+        return candidatesScored.sum();
+    }
+
+    // Nodes held in memory, not counting the snapshot
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    // Word IDs handed out, evicted and snapshot words included
+    public int wordCount() {
+        return wordCount;
+    }
+
+    // Words moved to the cold tier
+    public int coldWordCount() {
+        return cold.wordCount();
+    }
+
+    // Context-free part of the weight of a word in the Trie
+    private double unigramScore(String word) {
+        if (base != null) {
+            int node = base.find(word);
+            if (node >= 0 && !copied(base.wordId(node))) {
+                return unigramScore(base.frequency(node), base.confirmed(node));
+            }
+        }
+        TrieNode node = find(word);
+        if (node != null && node.word != null) {
+            return unigramScore(node.frequency, node.confirmed);
+        }
+        ColdWords cold = this.cold;
+        int evicted = cold.indexOf(word);
+        return evicted >= 0 ? unigramScore(cold.frequency(evicted), cold.confirmed(evicted)) : 0;
+    }
+
+    // Passes a word with its ID and counts to the visitor, returning false if it is not in the Trie
+    public boolean visitWord(String word, WordVisitor visitor) {
+        if (base != null) {
+            int node = base.find(word);
+            if (node >= 0 && !copied(base.wordId(node))) {
+                visitor.visit(word, base.wordId(node), base.frequency(node), base.confirmed(node));
+                return true;
+            }
+        }
+        TrieNode node = find(word);
+        if (node != null && node.word != null) {
+            visitor.visit(word, node.id, node.frequency, node.confirmed);
+            return true;
+        }
+        ColdWords cold = this.cold;
+        int evicted = cold.indexOf(word);
+        if (evicted >= 0) {
+            visitor.visit(word, cold.id(evicted), cold.frequency(evicted), cold.confirmed(evicted));
+        }
+        return evicted >= 0;
+    }
+
+    // Returns the ID of a word, or -1 if it is not in the Trie
+    public int wordId(String word) {
+        if (base != null) {
+            int node = base.find(word);
+            if (node >= 0) {
+                return base.wordId(node);
+            }
+        }
+        TrieNode node = find(word);
+        if (node != null && node.word != null) {
+            return node.id;
+        }
+        ColdWords cold = this.cold;
+        int evicted = cold.indexOf(word);
+        return evicted >= 0 ? cold.id(evicted) : -1;
+    }
+
+    // Whether a snapshot word was copied into memory, so its snapshot entry is out of date
+    // Only a shared snapshot has such words; the copy may since have moved to the cold tier
+    private boolean copied(int id) {
+        return shared && copied.get(id, 0) > 0;
+    }
+
+    // Returns the node the word ends on, or null if the word leaves the Trie or ends inside an edge
+    private TrieNode find(String word) {
         TrieNode node = root;
-        for (char c : word.toCharArray()) {
-            if (!node.children.containsKey(c)) {
-                return; // Word does not exist
+        int i = 0;
+        while (i < word.length()) {
+            node = node.child(word.charAt(i));
+            if (node == null || matchLabel(node, word, i) < node.labelLength) {
+                return null;
             }
-            node = node.children.get(c);
+            i += node.labelLength;
+        }
+        return node;
+    }
+
+    // Counts how many characters of a node's edge match the word from position i on
+    private int matchLabel(TrieNode node, String word, int i) {
+        char[] labels = this.labels; // Read after the node, so it holds the node's edge
+        int limit = Math.min(node.labelLength, word.length() - i);
+        int matched = 0;
+        while (matched < limit && labels[node.labelStart + matched] == word.charAt(i + matched)) {
+            matched++;
+        }
+        return matched;
+    }
+
+    // Copies the characters of a word from position start on into the labels arena, returning their offset
+    private int appendLabel(String word, int start) {
+        int length = word.length() - start;
+        char[] labels = this.labels;
+        if (labelsSize + length > labels.length) {
+            labels = Arrays.copyOf(labels, Math.max(labels.length * 2, labelsSize + length));
+        }
+        word.getChars(start, word.length(), labels, labelsSize);
+        this.labels = labels; // Published before any node using the new characters
+        labelsSize += length;
+        return labelsSize - length;
+    }
+
+    // Splits the edge above child after its first at characters, returning the new node in between
+    // Edges never change, so the part below the split is a copy of child that takes its place,
+    // in the top lists too
+    private TrieNode split(TrieNode parent, TrieNode child, int at) {
+        TrieNode lower = new TrieNode(labels[child.labelStart + at], child.labelStart + at, child.labelLength - at);
+        lower.children = child.children;
+        lower.id = child.id;
+        lower.word = child.word;
+        lower.frequency = child.frequency;
+        lower.confirmed = child.confirmed;
+        lower.top = child.top;
+        lower.best = child.best;
+        lower.lastUsed = child.lastUsed;
+
+        TrieNode middle = new TrieNode(child.label, child.labelStart, at);
+        middle.children = new TrieNode[] {lower};
+        middle.top = child.top; // Same subtree, same best words
+        middle.best = child.best;
+        parent.putChild(middle); // Replaces child
+        nodeCount++;
+        if (child.word != null) {
+            replaceTop(child.word, child, lower);
+        }
+        return middle;
+    }
+
+    // Swaps one word node for another in the top lists along the word's path
+    private void replaceTop(String word, TrieNode old, TrieNode replacement) {
+        TrieNode node = root;
+        int i = 0;
+        while (true) {
+            TrieNode[] top = node.top;
+            for (int j = 0; j < top.length; j++) {
+                if (top[j] == old) {
+                    top = top.clone();
+                    top[j] = replacement;
+                    node.top = top;
+                    break;
+                }
+            }
+            if (i == word.length()) {
+                return;
+            }
+            node = node.child(word.charAt(i));
+            i += node.labelLength;
         }
-        node.confirmed++;
     }
 
     // Prunes low-frequency and unconfirmed nodes
+    // Only childless non-word nodes are removed, and those never appear in a top list,
+    // so the index stays current without a rebuild
     public void pruneUnused() {
-        prune(root, new StringBuilder());
+        prune(root);
     }
 
     // Prunes low-frequency and unconfirmed nodes
-    private boolean prune(TrieNode node, StringBuilder prefix) {
-        Iterator<Map.Entry<Character, TrieNode>> it = node.children.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<Character, TrieNode> entry = it.next();
-            TrieNode child = entry.getValue();
-            prefix.append(entry.getKey());
-            if (prune(child, prefix)) {
-                it.remove(); // Remove unused child
+    private boolean prune(TrieNode node) {
+        for (TrieNode child : node.children) {
+            if (prune(child)) {
+                node.removeChild(child.label); // Remove unused child
+                nodeCount--;
+            }
+        }
+        return node.word == null && node.frequency <= 5 && node.confirmed == 0 && node.children.length == 0;
+    }
+
+    // Evicts the words least likely to be suggested until at most maxWords are left in the Trie,
+    // returning how many were evicted. The lowest scores go first, and among equal scores the
+    // words inserted or confirmed longest ago. Evicted words move to the cold tier, which keeps
+    // their IDs and counts and is searched only for prefixes the Trie has no words under
+    public int evict(int maxWords) {
+        List<TrieNode> words = new ArrayList<>();
+        collectWords(root, words);
+        if (words.size() <= maxWords) {
+            return 0;
+        }
+        words.sort((a, b) -> {
+            int byScore = Double.compare(unigramScore(a.frequency, a.confirmed), unigramScore(b.frequency, b.confirmed));
+            return byScore != 0 ? byScore : Integer.compare(a.lastUsed, b.lastUsed);
+        });
+
+        int count = words.size() - maxWords;
+        Set<TrieNode> evicted = Collections.newSetFromMap(new IdentityHashMap<>());
+        String[] evictedWords = new String[count];
+        int[] ids = new int[count];
+        int[] frequencies = new int[count];
+        int[] confirmed = new int[count];
+        for (int i = 0; i < count; i++) {
+            TrieNode node = words.get(i);
+            evicted.add(node);
+            evictedWords[i] = node.word;
+            ids[i] = node.id;
+            frequencies[i] = node.frequency;
+            confirmed[i] = node.confirmed;
+        }
+        cold = cold.with(evictedWords, ids, frequencies, confirmed); // Before they leave, so no word is ever missing
+        evict(root, evicted);
+        nodeCount = countNodes(root);
+        suggestionCache.clear();
+        return count;
+    }
+
+    // Rebuilds a subtree without the evicted words, returning the node to keep in its place, or null
+    // if nothing is left. Nodes are copied wherever a reader could see the change, single-child
+    // nodes left behind are merged with their child, and top lists are recomputed along the way
+    private TrieNode evict(TrieNode node, Set<TrieNode> evicted) {
+        TrieNode[] children = node.children;
+        TrieNode[] kept = new TrieNode[children.length];
+        int size = 0;
+        boolean changed = false;
+        for (TrieNode child : children) {
+            TrieNode[] top = child.top;
+            float best = child.best;
+            TrieNode replacement = evict(child, evicted);
+            // A child kept in place still changed if it lost words, which shows in its top list or bound
+            changed |= replacement != child || replacement.top != top || replacement.best != best;
+            if (replacement != null) {
+                kept[size++] = replacement;
+            }
+        }
+        boolean keepWord = node.word != null && !evicted.contains(node);
+        changed |= node.word != null && !keepWord;
+        if (!changed) {
+            return node;
+        }
+        kept = size == 0 ? TrieNode.NO_CHILDREN : Arrays.copyOf(kept, size);
+
+        TrieNode result = node;
+        if (node != root && !keepWord) {
+            if (size == 0) {
+                return null;
+            }
+            if (size == 1) {
+                return merge(node, kept[0]);
+            }
+            if (node.word != null) {
+                result = new TrieNode(node.label, node.labelStart, node.labelLength); // The same edge, no word
+            }
+        }
+        result.children = kept;
+        rebuildTop(result);
+        return result;
+    }
+
+    // Joins a non-word node with its only child into one node taking the child's place
+    private TrieNode merge(TrieNode node, TrieNode child) {
+        int start = node.labelStart;
+        if (node.labelStart + node.labelLength != child.labelStart) {
+            // The two edges are not adjacent in the arena, as they are when a split made them
+            String edge = new String(labels, node.labelStart, node.labelLength)
+                        + new String(labels, child.labelStart, child.labelLength);
+            start = appendLabel(edge, 0);
+        }
+        TrieNode merged = new TrieNode(node.label, start, node.labelLength + child.labelLength);
+        merged.children = child.children;
+        merged.id = child.id;
+        merged.word = child.word;
+        merged.frequency = child.frequency;
+        merged.confirmed = child.confirmed;
+        merged.lastUsed = child.lastUsed;
+        rebuildTop(merged); // The child's list names the child itself
+        return merged;
+    }
+
+    // Recomputes the top list, or without the index the subtree bound, of a node from its children's
+    private void rebuildTop(TrieNode node) {
+        if (topK == 0) {
+            float best = node.word != null ? bound(unigramScore(node.frequency, node.confirmed)) : 0;
+            for (TrieNode child : node.children) {
+                best = Math.max(best, child.best);
+            }
+            node.best = best;
+            return;
+        }
+        List<TrieNode> candidates = new ArrayList<>();
+        if (node.word != null) {
+            candidates.add(node);
+        }
+        for (TrieNode child : node.children) {
+            Collections.addAll(candidates, child.top);
+        }
+        candidates.sort((a, b) -> ranksAbove(a, b) ? -1 : ranksAbove(b, a) ? 1 : 0);
+        node.top = candidates.isEmpty() ? TrieNode.NO_TOP
+                 : candidates.subList(0, Math.min(topK, candidates.size())).toArray(new TrieNode[0]);
+    }
+
+    private static int countNodes(TrieNode node) {
+        int count = 1;
+        for (TrieNode child : node.children) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    // Collects the word nodes of a subtree
+    private static void collectWords(TrieNode node, List<TrieNode> words) {
+        if (node.word != null) {
+            words.add(node);
+        }
+        for (TrieNode child : node.children) {
+            collectWords(child, words);
+        }
+    }
+
+    // Smallest float no lower than a score, so a subtree bound never rules out the word it came from
+    // With configurable weights a score need not be exact as a float, and rounding to nearest could
+    // round it down
+    private static float bound(double score) {
+        float bound = (float) score;
+        return bound < score ? Math.nextUp(bound) : bound;
+    }
+
+    // Offers an updated word node to the top list of every node along its path,
+    // or without the index raises their subtree bounds to its score
+    private void updateTop(String word, TrieNode wordNode) {
+        double score = unigramScore(wordNode.frequency, wordNode.confirmed);
+        TrieNode node = root;
+        int i = 0;
+        while (true) {
+            if (topK > 0) {
+                offerTop(node, wordNode);
+            } else if (score > node.best) {
+                node.best = bound(score);
+            }
+            if (i == word.length()) {
+                return;
             }
-            prefix.deleteCharAt(prefix.length() - 1);
+            node = node.child(word.charAt(i));
+            i += node.labelLength;
         }
-        return !node.isWord && node.frequency <= 5 && node.confirmed == 0 && node.children.isEmpty();
     }
 
-    // Compresses the Trie for efficient storage
-    public void compressTrie() {
-        compress(root);
+    // Places a word node in a top list, keeping the list sorted and bounded by topK
+    // Scores only ever grow, so a word that is not offered can never need to enter a list
+    private void offerTop(TrieNode node, TrieNode wordNode) {
+        TrieNode[] top = node.top;
+        int i = 0;
+        while (i < top.length && top[i] != wordNode) {
+            i++;
+        }
+        if (i == top.length) {
+            if (top.length < topK) {
+                top = Arrays.copyOf(top, top.length + 1);
+            } else if (!ranksAbove(wordNode, top[i - 1])) {
+                return; // Not good enough for this subtree
+            } else {
+                top = top.clone();
+                i--; // Replace the weakest entry
+            }
+        } else if (i == 0 || !ranksAbove(wordNode, top[i - 1])) {
+            return; // Already in place
+        } else {
+            top = top.clone();
+        }
+        // Bubble the word up to its new place
+        top[i] = wordNode;
+        while (i > 0 && ranksAbove(wordNode, top[i - 1])) {
+            top[i] = top[i - 1];
+            top[--i] = wordNode;
+        }
+        node.top = top; // Published whole, so readers never see a list mid-update
     }
 
-    private void compress(TrieNode node) {
-        for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
-            TrieNode child = entry.getValue();
-            compress(child);
+    // Orders word nodes by score, then alphabetically like the subtree walk
+    private boolean ranksAbove(TrieNode a, TrieNode b) {
+        double scoreA = unigramScore(a.frequency, a.confirmed);
+        double scoreB = unigramScore(b.frequency, b.confirmed);
+        return scoreA > scoreB || (scoreA == scoreB && a.word.compareTo(b.word) < 0);
+    }
 
-            // Merge single-child nodes
-            if (child.children.size() == 1 && !child.isWord) {
-                Map.Entry<Character, TrieNode> grandchild = child.children.entrySet().iterator().next();
-                node.children.put(grandchild.getKey(), grandchild.getValue());
-                node.children.remove(entry.getKey());
+    // Orders a word node against a snapshot word node the same way, reading the latter in place
+    private boolean ranksAbove(TrieNode a, int b) {
+        double scoreA = unigramScore(a.frequency, a.confirmed);
+        double scoreB = unigramScore(base.frequency(b), base.confirmed(b));
+        if (scoreA != scoreB) {
+            return scoreA > scoreB;
+        }
+        int length = base.wordLength(b);
+        for (int k = 0; k < Math.min(a.word.length(), length); k++) {
+            char c = base.wordChar(b, k);
+            if (a.word.charAt(k) != c) {
+                return a.word.charAt(k) < c;
             }
         }
+        return a.word.length() < length;
+    }
+
+    // Context-free part of a word's weight
+    private double unigramScore(int frequency, int confirmed) {
+        return weights.unigram(frequency, confirmed);
+    }
+
+    // The weights words are ranked with
+    public ScoringWeights weights() {
+        return weights;
+    }
+
+    // Writes the Trie, counters and top lists included, in the layout MappedTrie reads
+    // A Trie on a snapshot, or with evicted words, is first copied into memory whole
+    public void writeSnapshot(DataOutputStream out) throws IOException {
+        if (topK == 0) {
+            throw new IllegalStateException("Only an indexed Trie can be written");
+        }
+        if (base != null || cold.wordCount() > 0) {
+            materialize().writeSnapshot(out);
+            return;
+        }
+
+        // Number the nodes breadth first so every node's children are contiguous
+        // The snapshot has a node per character, so each edge is laid out as a chain of nodes,
+        // all sharing the top list of the radix node at its end
+        List<TrieNode> nodes = new ArrayList<>(); // Radix node each snapshot node is part of
+        int[] depths = new int[1024]; // Characters of that node's edge the snapshot node ends after
+        Map<TrieNode, Integer> index = new IdentityHashMap<>(); // Radix node -> snapshot node at its end
+        nodes.add(root);
+        index.put(root, 0);
+        int topCount = 0;
+        int wordChars = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            TrieNode node = nodes.get(i);
+            if (nodes.size() + node.children.length + 1 > depths.length) {
+                depths = Arrays.copyOf(depths, depths.length * 2 + node.children.length);
+            }
+            if (depths[i] < node.labelLength) {
+                depths[nodes.size()] = depths[i] + 1; // The next character of the edge
+                nodes.add(node);
+            } else {
+                for (TrieNode child : node.children) {
+                    depths[nodes.size()] = 1;
+                    nodes.add(child);
+                }
+            }
+            if (depths[i] == node.labelLength) {
+                index.put(node, i);
+                wordChars += node.word != null ? node.word.length() : 0;
+            }
+            topCount += node.top.length;
+        }
+
+        out.writeInt(MappedTrie.MAGIC);
+        out.writeInt(MappedTrie.FORMAT);
+        out.writeInt(nodes.size());
+        out.writeInt(topCount);
+        out.writeInt(wordCount);
+        out.writeInt(wordChars);
+        out.writeDouble(weights.frequency);
+        out.writeDouble(weights.confirmed);
+        out.writeDouble(weights.bigram);
+        out.writeDouble(weights.trigram);
+
+        int firstChild = 1;
+        int topStart = 0;
+        String[] words = new String[wordCount]; // The pool is laid out in ID order
+        for (int i = 0; i < nodes.size(); i++) {
+            TrieNode node = nodes.get(i);
+            boolean end = depths[i] == node.labelLength; // Whether this is the radix node itself
+            int childCount = end ? node.children.length : 1;
+            out.writeChar(depths[i] > 0 ? labels[node.labelStart + depths[i] - 1] : 0);
+            out.writeChar(childCount);
+            out.writeInt(firstChild);
+            out.writeInt(end ? node.id : -1);
+            out.writeInt(end ? node.frequency : 0);
+            out.writeInt(end ? node.confirmed : 0);
+            out.writeInt(topStart);
+            out.writeChar(node.top.length);
+            out.writeChar(0); // Padding
+            firstChild += childCount;
+            topStart += node.top.length;
+            if (end && node.word != null) {
+                words[node.id] = node.word;
+            }
+        }
+        for (TrieNode node : nodes) {
+            for (TrieNode entry : node.top) {
+                out.writeInt(index.get(entry));
+            }
+        }
+        int wordStart = 0;
+        for (String word : words) {
+            out.writeInt(wordStart);
+            wordStart += word != null ? word.length() : 0; // Evicted words are not written
+        }
+        out.writeInt(wordStart);
+        for (String word : words) {
+            if (word != null) {
+                out.writeChars(word);
+            }
+        }
+    }
+
+    // Returns an in-memory Trie with every word of this one, snapshot and evicted words included,
+    // under the same IDs and counts
+    private Trie materialize() {
+        Trie copy = new Trie(topK, null, 0, weights);
+        copy.wordCount = wordCount;
+        if (base != null) {
+            for (int node = 0; node < base.size(); node++) {
+                if (base.isWord(node)) {
+                    copy.restore(base.word(node), base.wordId(node), base.frequency(node), base.confirmed(node));
+                }
+            }
+        }
+        List<TrieNode> words = new ArrayList<>();
+        collectWords(root, words);
+        for (TrieNode node : words) {
+            copy.restore(node.word, node.id, node.frequency, node.confirmed);
+        }
+        ColdWords cold = this.cold;
+        for (int i = 0; i < cold.size(); i++) {
+            if (!cold.isRemoved(i)) {
+                copy.restore(cold.word(i), cold.id(i), cold.frequency(i), cold.confirmed(i));
+            }
+        }
+        return copy;
     }
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     // End of manipultation methods
 
     // Popularity methods
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Visits every word under the prefix a cursor has reached, snapshot and evicted words included,
+    // in no particular order. Unlike a lookup this walks the whole subtree, for offline tools
+    public void forEachWord(PrefixCursor cursor, WordVisitor visitor) {
+        if (cursor.node != null) {
+            forEachWord(cursor.node, visitor);
+        }
+        if (cursor.baseNode >= 0) {
+            forEachWord(cursor.baseNode, visitor);
+        }
+        ColdWords cold = this.cold;
+        String prefix = cursor.prefix();
+        for (int i = cold.from(prefix), end = cold.to(prefix, i); i < end; i++) {
+            if (!cold.isRemoved(i)) {
+                visitor.visit(cold.word(i), cold.id(i), cold.frequency(i), cold.confirmed(i));
+            }
+        }
+    }
+
+    private static void forEachWord(TrieNode node, WordVisitor visitor) {
+        if (node.word != null) {
+            visitor.visit(node.word, node.id, node.frequency, node.confirmed);
+        }
+        for (TrieNode child : node.children) {
+            forEachWord(child, visitor);
+        }
+    }
+
+    private void forEachWord(int node, WordVisitor visitor) {
+        if (base.isWord(node) && !copied(base.wordId(node))) {
+            visitor.visit(base.word(node), base.wordId(node), base.frequency(node), base.confirmed(node));
+        }
+        for (int i = 0; i < base.childCount(node); i++) {
+            forEachWord(base.firstChild(node) + i, visitor);
+        }
+    }
+
     // Retrieves suggestions based on prefix and weighted scoring
-    public List<String> getWeightedSuggestions(String prefix, int limit, String currentWord,
-                                               Map<String, Map<String, Integer>> bigramModel,
-                                               Map<String, Map<String, Integer>> trigramModel) {
-        if (suggestionCache.containsKey(prefix)) {
-            return suggestionCache.get(prefix); // Return cached suggestions if available
+    // The context is the IDs of the two words typed before the prefix, -1 where there is none
+    public List<String> getWeightedSuggestions(String prefix, int limit, int beforePrevious, int previous,
+                                               NGramModel ngrams) {
+        PrefixCursor cursor = new PrefixCursor();
+        for (char c : prefix.toCharArray()) {
+            cursor.advance(c);
         }
+        return getWeightedSuggestions(cursor, limit, beforePrevious, previous, ngrams);
+    }
 
-        TrieNode node = root;
+    // Retrieves suggestions like getWeightedSuggestions, adding words up to maxEdits edits away
+    // from the prefix when there are too few, see suggest
+    public List<String> getFuzzySuggestions(String prefix, int limit, int maxEdits, int beforePrevious, int previous,
+                                            NGramModel ngrams) {
+        PrefixCursor cursor = new PrefixCursor();
         for (char c : prefix.toCharArray()) {
-            if (!node.children.containsKey(c)) {
-                return Collections.emptyList(); // No suggestions available
+            cursor.advance(c);
+        }
+        String[] words = new String[limit];
+        int size = suggest(cursor, limit, maxEdits, beforePrevious, previous, ngrams, words, 0);
+        return Arrays.asList(size == limit ? words : Arrays.copyOf(words, size));
+    }
+
+    // Retrieves suggestions for the prefix a cursor has reached
+    public List<String> getWeightedSuggestions(PrefixCursor cursor, int limit, int beforePrevious, int previous,
+                                               NGramModel ngrams) {
+        String[] words = new String[limit];
+        int size = suggest(cursor, limit, beforePrevious, previous, ngrams, words, 0);
+        return Arrays.asList(size == limit ? words : Arrays.copyOf(words, size));
+    }
+
+    // Writes the suggestions for the prefix a cursor has reached into the array from offset, best
+    // first, and returns how many there are. Only a cache miss that gets stored, or a snapshot or
+    // evicted word making the cut, allocates; the cursor holds the prefix and the selection
+    public int suggest(PrefixCursor cursor, int limit, int beforePrevious, int previous, NGramModel ngrams,
+                       String[] into, int offset) {
+        CharSequence prefix = cursor.prefix;
+        long generation = suggestionCache.generation(prefix); // Before the Trie is read, see SuggestionCache
+        int cached = suggestionCache.get(beforePrevious, previous, prefix, limit, into, offset);
+        if (cached >= 0) {
+            return cached; // Return cached suggestions if available
+        }
+        ColdWords cold = this.cold;
+        if (!cursor.matches() && cold.wordCount() == 0) {
+            return 0; // No suggestions available
+        }
+
+        // Stream the candidates into the best few, skipping those that cannot make it
+        int pair = ngrams.pair(beforePrevious, previous); // Resolved once for every candidate
+        double contextBound = weights.context(ngrams.maxBigram(previous), ngrams.maxTrigram(pair)); // No word gains more
+        Selection best = cursor.selection(limit, cold);
+        if (cursor.node != null && cursor.baseNode >= 0 && topK > 0) {
+            offerWordsUnder(cursor.node, cursor.baseNode, best, previous, pair, contextBound, ngrams);
+        } else if (cursor.node != null) { // Null when only the snapshot has words under this prefix
+            offerWordsUnder(cursor.node, best, previous, pair, contextBound, ngrams);
+        } else if (cursor.baseNode >= 0) {
+            offerWordsUnder(cursor.baseNode, best, previous, pair, contextBound, ngrams);
+        }
+
+        if (best.size == 0 && cold.wordCount() > 0) {
+            // Only evicted words can be under this prefix
+            for (int i = cold.from(prefix), end = cold.to(prefix, i); i < end; i++) {
+                if (cold.isRemoved(i)) {
+                    continue; // Back in the Trie, so it would have been offered above
+                }
+                best.visited++;
+                double unigramScore = unigramScore(cold.frequency(i), cold.confirmed(i));
+                if (best.admits(unigramScore + contextBound)) {
+                    best.offerCold(i, cold.id(i), weigh(cold.id(i), unigramScore, previous, pair, ngrams));
+                }
             }
-            node = node.children.get(c);
         }
 
-        // Calculate scores for suggestions
-        List<WordScore> wordScores = new ArrayList<>();
-        findWeightedWords(node, new StringBuilder(prefix), wordScores, currentWord, bigramModel, trigramModel);
+        lookups.increment();
+        nodesVisited.add(best.visited);
+        candidatesScored.add(best.scored);
+        best.resolve();
+        System.arraycopy(best.words, 0, into, offset, best.size);
+        suggestionCache.put(beforePrevious, previous, prefix, limit, best.words, best.weights, best.size, generation); // Cache the result for future use
+        return best.size;
+    }
 
-        // Sort by weight in descending order
-        wordScores.sort((a, b) -> Double.compare(b.weight, a.weight));
+    // Same as suggest, then fills the slots left over with words a prefix of which is within
+    // maxEdits edits of the typed one, for when a letter was mistyped, dropped or doubled.
+    // Words needing fewer edits come first, each group ranked by weight the way exact ones are.
+    // Short prefixes are allowed fewer edits, none up to 2 characters and 1 up to 5, or nearly
+    // every word would match, and the first letter is taken as typed, which keeps the walk to one
+    // subtree of the root. Evicted words are only found by their exact prefix
+    public int suggest(PrefixCursor cursor, int limit, int maxEdits, int beforePrevious, int previous,
+                       NGramModel ngrams, String[] into, int offset) {
+        int found = suggest(cursor, limit, beforePrevious, previous, ngrams, into, offset);
+        CharSequence prefix = cursor.prefix;
+        maxEdits = Math.min(maxEdits, prefix.length() < 3 ? 0 : prefix.length() < 6 ? 1 : 2);
+        if (found == limit || maxEdits <= 0) {
+            return found;
+        }
+        FuzzySearch search = cursor.fuzzy();
+        search.start(prefix, maxEdits);
+        fuzzyWalk(root, 0, maxEdits + 1, prefix, maxEdits, search);
+        if (base != null) {
+            fuzzyWalk(base.root(), 0, maxEdits + 1, prefix, maxEdits, search);
+        }
 
-        // Prepare the result list
-        List<String> result = new ArrayList<>();
-        for (int i = 0; i < Math.min(limit, wordScores.size()); i++) {
-            result.add(wordScores.get(i).word);
+        Selection best = cursor.selection(limit, cold);
+        for (int i = 0; i < found; i++) {
+            best.exclude(wordId(into[offset + i]));
         }
+        int pair = ngrams.pair(beforePrevious, previous);
+        double contextBound = weights.context(ngrams.maxBigram(previous), ngrams.maxTrigram(pair));
+        for (int edits = 1; edits <= maxEdits && found < limit; edits++) {
+            best.restart(limit - found);
+            for (int i = 0; i < search.nodeCount; i++) {
+                if (search.nodeEdits[i] == edits) {
+                    offerWordsUnder(search.nodes[i], best, previous, pair, contextBound, ngrams);
+                }
+            }
+            for (int i = 0; i < search.baseCount; i++) {
+                if (search.baseEdits[i] == edits) {
+                    offerWordsUnder(search.baseNodes[i], best, previous, pair, contextBound, ngrams);
+                }
+            }
+            best.resolve();
+            for (int i = 0; i < best.size; i++) {
+                into[offset + found++] = best.words[i];
+                best.exclude(best.ids[i]);
+            }
+        }
+        search.finish();
+        nodesVisited.add(best.visited);
+        candidatesScored.add(best.scored);
+        return found;
+    }
 
-        suggestionCache.put(prefix, result); // Cache the result for future use
-        return result;
+    // Records the children of a node whose path comes within maxEdits edits of the prefix, along
+    // with the fewest edits any part of the path needs. Depth is the characters down to the node,
+    // and edits the fewest recorded above it; a child only needing as many is already covered.
+    // Below a node one edit away only the exact prefix needs fewer, and suggest has its words
+    private void fuzzyWalk(TrieNode node, int depth, int edits, CharSequence prefix, int maxEdits,
+                           FuzzySearch search) {
+        int deepest = search.length + maxEdits; // Past it the path is longer than the prefix by too much
+        for (TrieNode child : node.children) {
+            if (depth == 0 && child.label != prefix.charAt(0)) {
+                continue; // The first letter is taken as typed
+            }
+            char[] labels = this.labels; // Read after the child, so it holds the child's edge
+            int childEdits = edits;
+            int i = 0; // Characters of the edge stepped through
+            int min = 0;
+            while (i < child.labelLength && depth + i < deepest && min <= maxEdits) {
+                min = search.step(prefix, depth + i + 1, labels[child.labelStart + i]);
+                childEdits = Math.min(childEdits, search.edits(depth + i + 1));
+                i++;
+            }
+            if (childEdits < edits) {
+                search.add(child, childEdits);
+            }
+            if (i == child.labelLength && min <= maxEdits && childEdits > 1) {
+                fuzzyWalk(child, depth + i, childEdits, prefix, maxEdits, search);
+            }
+        }
+    }
+
+    // Same for the snapshot, whose edges are single characters
+    private void fuzzyWalk(int node, int depth, int edits, CharSequence prefix, int maxEdits, FuzzySearch search) {
+        if (depth == search.length + maxEdits) {
+            return;
+        }
+        int first = base.firstChild(node);
+        for (int child = first; child < first + base.childCount(node); child++) {
+            if (depth == 0 && base.label(child) != prefix.charAt(0)) {
+                continue;
+            }
+            int min = search.step(prefix, depth + 1, base.label(child));
+            int childEdits = Math.min(edits, search.edits(depth + 1));
+            if (childEdits < edits) {
+                search.add(child, childEdits);
+            }
+            if (min <= maxEdits && childEdits > 1) {
+                fuzzyWalk(child, depth + 1, childEdits, prefix, maxEdits, search);
+            }
+        }
+    }
+
+    // Offers the best words under a node, from its top list when the Trie keeps them
+    private void offerWordsUnder(TrieNode node, Selection best, int previous, int pair, double contextBound,
+                                 NGramModel ngrams) {
+        if (topK == 0) {
+            select(node, best, previous, pair, contextBound, ngrams);
+            return;
+        }
+        // Rerank the precomputed candidates instead of walking the subtree
+        for (TrieNode candidate : node.top) {
+            best.visited++;
+            double unigramScore = unigramScore(candidate.frequency, candidate.confirmed);
+            if (!best.admits(unigramScore + contextBound)) {
+                break; // The list is sorted by unigram score, so no later entry can do better
+            }
+            best.offer(candidate.word, candidate.id, weigh(candidate.id, unigramScore, previous, pair, ngrams));
+        }
     }
 
-    // Searches the tree for weighted words
-    private void findWeightedWords(TrieNode node, StringBuilder prefix, List<WordScore> wordScores,
-                                   String currentWord, Map<String, Map<String, Integer>> bigramModel,
-                                   Map<String, Map<String, Integer>> trigramModel) {
-        if (node.isWord) {
-            // Calculate bigram and trigram probabilities
-            double bigramProbability = bigramModel.getOrDefault(currentWord, Collections.emptyMap())
-                                                  .getOrDefault(prefix.toString(), 0);
-            String[] words = currentWord.split("\\s+");
-            String trigramKey = words.length > 1 ? words[words.length - 2] + " " + words[words.length - 1] : null;
-            double trigramProbability = trigramKey != null ? trigramModel.getOrDefault(trigramKey, Collections.emptyMap())
-                                                           .getOrDefault(prefix.toString(), 0) : 0;
-
-            // Calculate weight
-            double weight = (node.frequency * 0.25) 
-                          + (node.confirmed * 2.0) 
-                          + (bigramProbability * 1.5) 
-                          + (trigramProbability * 2.0);
-
-            wordScores.add(new WordScore(prefix.toString(), weight));
-        }
-        for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
-            prefix.append(entry.getKey());
-            findWeightedWords(entry.getValue(), prefix, wordScores, currentWord, bigramModel, trigramModel);
-            prefix.deleteCharAt(prefix.length() - 1);
+    // Offers the best words under a prefix both the Trie and its snapshot have words under
+    // The snapshot keeps the words the in-memory part lacks, so the two never overlap, except for
+    // words copied out of a shared snapshot, whose snapshot entries are passed over. The two top
+    // lists are walked in their common order and only the first topK entries offered, the same
+    // candidates as the one list of a Trie holding every word
+    private void offerWordsUnder(TrieNode node, int baseNode, Selection best, int previous, int pair,
+                                 double contextBound, NGramModel ngrams) {
+        TrieNode[] top = node.top;
+        int baseSize = base.topSize(baseNode);
+        int i = 0;
+        int j = 0;
+        for (int taken = 0; taken < topK && (i < top.length || j < baseSize); ) {
+            best.visited++;
+            int baseCandidate = j < baseSize ? base.top(baseNode, j) : -1;
+            if (baseCandidate >= 0 && copied(base.wordId(baseCandidate))) {
+                j++;
+                continue; // Offered from memory, with the counts it has since
+            }
+            if (baseCandidate < 0 || i < top.length && ranksAbove(top[i], baseCandidate)) {
+                TrieNode candidate = top[i++];
+                double unigramScore = unigramScore(candidate.frequency, candidate.confirmed);
+                if (!best.admits(unigramScore + contextBound)) {
+                    break; // Both lists are sorted by unigram score, so no later entry can do better
+                }
+                best.offer(candidate.word, candidate.id, weigh(candidate.id, unigramScore, previous, pair, ngrams));
+            } else {
+                j++;
+                double unigramScore = unigramScore(base.frequency(baseCandidate), base.confirmed(baseCandidate));
+                if (!best.admits(unigramScore + contextBound)) {
+                    break;
+                }
+                int id = base.wordId(baseCandidate);
+                best.offerBase(baseCandidate, id, weigh(id, unigramScore, previous, pair, ngrams));
+            }
+            taken++;
         }
     }
+
+    // Same for a prefix only the snapshot has words under
+    private void offerWordsUnder(int node, Selection best, int previous, int pair, double contextBound,
+                                 NGramModel ngrams) {
+        for (int i = 0; i < base.topSize(node); i++) {
+            int candidate = base.top(node, i);
+            best.visited++;
+            double unigramScore = unigramScore(base.frequency(candidate), base.confirmed(candidate));
+            if (!best.admits(unigramScore + contextBound)) {
+                break;
+            }
+            int id = base.wordId(candidate);
+            if (copied(id)) {
+                continue; // Offered from memory, with the counts it has since
+            }
+            best.offerBase(candidate, id, weigh(id, unigramScore, previous, pair, ngrams));
+        }
+    }
+
+    // Offers the words of a subtree in alphabetical order, skipping every child subtree whose
+    // best unigram score cannot beat the weakest word kept, even with the largest context bonus
+    private void select(TrieNode node, Selection best, int previous, int pair, double contextBound,
+                               NGramModel ngrams) {
+        best.visited++;
+        if (node.word != null) {
+            best.offer(node.word, node.id, weigh(node.id, unigramScore(node.frequency, node.confirmed), previous, pair, ngrams));
+        }
+        for (TrieNode child : node.children) {
+            if (best.admits(child.best + contextBound)) {
+                select(child, best, previous, pair, contextBound, ngrams);
+            }
+        }
+    }
+
+    // Calculates the weight of a word in the given context
+    private double weigh(int id, double unigramScore, int previous, int pair, NGramModel ngrams) {
+        // Calculate bigram and trigram probabilities
+        double bigramProbability = ngrams.bigram(previous, id);
+        double trigramProbability = ngrams.trigram(pair, id);
+
+        // Calculate weight
+        return unigramScore
+             + (bigramProbability * weights.bigram)
+             + (trigramProbability * weights.trigram);
+    }
     // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
     // End of Popularity methods
 }
@@ -0,0 +1,422 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Searches for the ScoringWeights that guess a corpus best
+// The model is built once and left read-only. Every keystroke of the new messages is reduced to
+// the features that decide whether its word is among the guesses: the word's counts in context,
+// and those of the few other words under the prefix that outrank it for some weights but not all.
+// The features are extracted by fork-join workers, one per chunk of lines, and shared read-only
+// by the trials, one per weight vector, which run on the same pool. A trial ranks over every word
+// under the prefix rather than the Trie's top lists and does not learn as it goes, so its accuracy
+// is an estimate; the best weights are then checked with a run scored the way EvalSmartWord does.
+//
+// Usage: WeightTuner wordFile oldMessageFile newMessageFile [samples [seed]]
+class WeightTuner {
+    // Inner Classes of WeightTuner
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Features inner class to extract the keystroke features of a chunk of lines
+    @SuppressWarnings("serial") // Forked, never serialized
+    private static class Features extends RecursiveAction {
+       private static final int FEATURES = 4; // Frequency, confirmed, bigram and trigram counts
+
+       private final SmartWordModel model;
+       private final List<String> lines;
+       private final int start;
+       private final int end;
+
+       // Words
+       private int words = 0;
+       private int[] lengths = new int[64];
+       private int[] firstKeystroke = new int[64];
+       private int[] keystrokeCounts = new int[64]; // Letters whose prefix can still lead to the word
+       private int[] targets = new int[64 * FEATURES]; // Features of each word
+
+       // Keystrokes
+       private int keystrokes = 0;
+       private int[] outranked = new int[256]; // Words that rank above the word for any weights, at most GUESSES
+       private int[] firstCompetitor = new int[256];
+       private int[] competitorCounts = new int[256];
+
+       // Competitors, the words that rank above the word for some weights
+       private int competitors = 0;
+       private int[] competitorFeatures = new int[1024 * FEATURES];
+       private boolean[] earlier = new boolean[1024]; // Whether it wins a tie, being alphabetically first
+
+       // Competitors of the current keystroke, before the ones that never matter are dropped
+       private int candidates = 0;
+       private int[] candidateFeatures = new int[1024 * FEATURES];
+       private boolean[] candidateEarlier = new boolean[1024];
+
+       Features(SmartWordModel model, List<String> lines, int start, int end) {
+          this.model = model;
+          this.lines = lines;
+          this.start = start;
+          this.end = end;
+       }
+
+       @Override
+       protected void compute() {
+          StringBuilder word = new StringBuilder();
+          String[] context = new String[2]; // Previous word and the one before, null if none
+          for (int i = start; i < end; i++) {
+             String line = lines.get(i);
+             context[0] = null; // Each line is typed on a fresh session, as in Replay
+             context[1] = null;
+             SmartWord.forEachWord(line, 0, line.length(), word, (letters, wordPosition) -> {
+                if (wordPosition == 0) {
+                   context[0] = null;
+                   context[1] = null;
+                }
+                addWord(letters.toString(), context[0], context[1]);
+                if (letters.length() > 0) {
+                   context[1] = context[0];
+                   context[0] = TextNormalizer.word(letters);
+                }
+             });
+          }
+       }
+
+       private void addWord(String typed, String previous, String beforePrevious) {
+          if (words == lengths.length) {
+             lengths = Arrays.copyOf(lengths, words * 2);
+             firstKeystroke = Arrays.copyOf(firstKeystroke, words * 2);
+             keystrokeCounts = Arrays.copyOf(keystrokeCounts, words * 2);
+             targets = Arrays.copyOf(targets, words * 2 * FEATURES);
+          }
+          int index = words++;
+          lengths[index] = typed.length();
+          firstKeystroke[index] = keystrokes;
+          keystrokeCounts[index] = 0;
+
+          Trie trie = model.trie();
+          NGramModel ngrams = model.ngrams();
+          String target = TextNormalizer.word(typed);
+          if (target == null) {
+             return; // An empty word is not typed at all
+          }
+          int previousId = model.wordId(previous);
+          int pair = ngrams.pair(model.wordId(beforePrevious), previousId);
+          int at = index * FEATURES;
+          int[] targetId = {-1};
+          boolean known = trie.visitWord(target, (word, id, frequency, confirmed) -> {
+             targetId[0] = id;
+             targets[at] = frequency;
+             targets[at + 1] = confirmed;
+             targets[at + 2] = ngrams.bigram(previousId, id);
+             targets[at + 3] = ngrams.trigram(pair, id);
+          });
+          if (!known) {
+             return; // A word the model does not know is never guessed
+          }
+
+          Trie.PrefixCursor cursor = trie.new PrefixCursor();
+          for (int letter = 0; letter < target.length(); letter++) {
+             cursor.advance(target.charAt(letter)); // Typed letters are folded, as SmartWord.guess does
+             addKeystroke(trie, ngrams, cursor, target, targetId[0], at, previousId, pair);
+             keystrokeCounts[index]++;
+          }
+       }
+
+       // Classifies every other word under the prefix against the target
+       private void addKeystroke(Trie trie, NGramModel ngrams, Trie.PrefixCursor cursor, String target, int targetId,
+                                 int at, int previousId, int pair) {
+          if (keystrokes == outranked.length) {
+             outranked = Arrays.copyOf(outranked, keystrokes * 2);
+             firstCompetitor = Arrays.copyOf(firstCompetitor, keystrokes * 2);
+             competitorCounts = Arrays.copyOf(competitorCounts, keystrokes * 2);
+          }
+          int keystroke = keystrokes++;
+          int[] above = new int[1];
+          candidates = 0;
+          trie.forEachWord(cursor, (word, id, frequency, confirmed) -> {
+             if (id == targetId) {
+                return;
+             }
+             int bigram = ngrams.bigram(previousId, id);
+             int trigram = ngrams.trigram(pair, id);
+             boolean first = word.compareTo(target) < 0;
+             int atLeast = compare(frequency, targets[at]) & compare(confirmed, targets[at + 1])
+                     & compare(bigram, targets[at + 2]) & compare(trigram, targets[at + 3]);
+             int atMost = compare(targets[at], frequency) & compare(targets[at + 1], confirmed)
+                     & compare(targets[at + 2], bigram) & compare(targets[at + 3], trigram);
+             if (atLeast != 0 && (atLeast == 1 || first)) {
+                above[0]++; // At least as good everywhere, so it always ranks above
+             } else if (atMost != 0 && (atMost == 1 || !first)) {
+                return; // No better anywhere, so it never does
+             } else {
+                addCandidate(frequency, confirmed, bigram, trigram, first);
+             }
+          });
+          outranked[keystroke] = Math.min(above[0], SmartWord.MAX_GUESSES);
+          firstCompetitor[keystroke] = competitors;
+          competitorCounts[keystroke] = 0;
+          if (above[0] >= SmartWord.MAX_GUESSES) {
+             return; // Never among the guesses
+          }
+
+          // A candidate with enough others better everywhere never matters: whenever it outranks the
+          // target, so do they. Sorted best first, a candidate's betters all come before it
+          Integer[] order = new Integer[candidates];
+          for (int i = 0; i < candidates; i++) {
+             order[i] = i;
+          }
+          Comparator<Integer> byFeatures = (a, b) -> {
+             for (int f = 0; f < FEATURES; f++) {
+                int c = Integer.compare(candidateFeatures[b * FEATURES + f], candidateFeatures[a * FEATURES + f]);
+                if (c != 0) {
+                   return c;
+                }
+             }
+             return 0;
+          };
+          Arrays.sort(order, byFeatures);
+          int needed = SmartWord.MAX_GUESSES - above[0];
+          for (int candidate : order) {
+             int dominated = 0;
+             for (int kept = firstCompetitor[keystroke]; kept < competitors && dominated < needed; kept++) {
+                if (dominates(competitorFeatures, kept, candidateFeatures, candidate)) {
+                   dominated++;
+                }
+             }
+             if (dominated < needed) {
+                addCompetitor(candidate);
+                competitorCounts[keystroke]++;
+             }
+          }
+       }
+
+       // 1 if a > b, 0 if a < b, and 3 if they are equal, so and-ing them tells whether a >= b everywhere
+       // (non-zero) and whether it was strictly greater somewhere (exactly 1)
+       private static int compare(int a, int b) {
+          return a > b ? 1 : a == b ? 3 : 0;
+       }
+
+       private static boolean dominates(int[] features, int i, int[] otherFeatures, int j) {
+          for (int f = 0; f < FEATURES; f++) {
+             if (features[i * FEATURES + f] < otherFeatures[j * FEATURES + f]) {
+                return false;
+             }
+          }
+          return true;
+       }
+
+       private void addCandidate(int frequency, int confirmed, int bigram, int trigram, boolean first) {
+          if (candidates == candidateEarlier.length) {
+             candidateFeatures = Arrays.copyOf(candidateFeatures, candidates * 2 * FEATURES);
+             candidateEarlier = Arrays.copyOf(candidateEarlier, candidates * 2);
+          }
+          int at = candidates * FEATURES;
+          candidateFeatures[at] = frequency;
+          candidateFeatures[at + 1] = confirmed;
+          candidateFeatures[at + 2] = bigram;
+          candidateFeatures[at + 3] = trigram;
+          candidateEarlier[candidates++] = first;
+       }
+
+       private void addCompetitor(int candidate) {
+          if (competitors == earlier.length) {
+             competitorFeatures = Arrays.copyOf(competitorFeatures, competitors * 2 * FEATURES);
+             earlier = Arrays.copyOf(earlier, competitors * 2);
+          }
+          System.arraycopy(candidateFeatures, candidate * FEATURES, competitorFeatures, competitors * FEATURES, FEATURES);
+          earlier[competitors++] = candidateEarlier[candidate];
+       }
+
+       // Sum of the percentages of letters saved per word, for the given weights
+       double skipped(ScoringWeights weights) {
+          double skipped = 0;
+          for (int word = 0; word < words; word++) {
+             int at = word * FEATURES;
+             double target = weigh(weights, targets, at);
+             for (int letter = 0; letter < keystrokeCounts[word]; letter++) {
+                int keystroke = firstKeystroke[word] + letter;
+                int above = outranked[keystroke];
+                int last = firstCompetitor[keystroke] + competitorCounts[keystroke];
+                for (int i = firstCompetitor[keystroke]; i < last && above < SmartWord.MAX_GUESSES; i++) {
+                   double weight = weigh(weights, competitorFeatures, i * FEATURES);
+                   if (weight > target || (weight == target && earlier[i])) {
+                      above++;
+                   }
+                }
+                if (above < SmartWord.MAX_GUESSES) {
+                   skipped += ((lengths[word] - 1 - letter) * 100.) / lengths[word];
+                   break;
+                }
+             }
+          }
+          return skipped;
+       }
+
+       // Same sum as Trie.weigh, in the same order, so ties break the same way
+       private static double weigh(ScoringWeights weights, int[] features, int at) {
+          return weights.unigram(features[at], features[at + 1])
+               + (features[at + 2] * weights.bigram)
+               + (features[at + 3] * weights.trigram);
+       }
+    }
+
+    // Trial inner class to estimate the accuracy of one weight vector
+    @SuppressWarnings("serial") // Forked, never serialized
+    private static class Trial extends RecursiveAction {
+       private final ScoringWeights weights;
+       private final List<Features> features;
+       private double accuracy;
+
+       Trial(ScoringWeights weights, List<Features> features) {
+          this.weights = weights;
+          this.features = features;
+       }
+
+       @Override
+       protected void compute() {
+          double skipped = 0;
+          int words = 0;
+          for (Features chunk : features) {
+             skipped += chunk.skipped(weights);
+             words += chunk.words;
+          }
+          accuracy = words == 0 ? 0 : skipped / words;
+       }
+    }
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // End of Inner Classes
+
+    // WeightTuner class
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    private static final int DEFAULT_SAMPLES = 500;
+    private static final int CHUNK_LINES = 32;
+    private static final double SPREAD = 4; // Sampled weights range over the default times 2^-SPREAD to 2^SPREAD
+    private static final int REPORTED = 5; // Best trials listed
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("Usage: WeightTuner wordFile oldMessageFile newMessageFile [samples [seed]]");
+            System.exit(-1);
+        }
+        int samples = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_SAMPLES;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+        ScoringWeights best = tune(args[0], args[1], args[2], samples, new Random(seed));
+        System.out.println("Default weights " + ScoringWeights.DEFAULT + ":");
+        evaluate(args[0], args[1], args[2], ScoringWeights.DEFAULT);
+        System.out.println("Best weights " + best + ":");
+        evaluate(args[0], args[1], args[2], best);
+    }
+
+    // Extracts the features, tries the weight vectors and prints the best, returning the very best
+    // The features are garbage once it returns, so they do not count towards the memory evaluate reports
+    static ScoringWeights tune(String wordFile, String oldMessageFile, String newMessageFile, int samples,
+                               Random random) throws IOException {
+        long start = System.nanoTime();
+        SmartWordModel model = new SmartWordModel(wordFile);
+        model.processOldMessages(oldMessageFile);
+        List<Features> features = extract(model, Files.readAllLines(Paths.get(newMessageFile)));
+        System.out.printf("Features extracted in %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        List<Trial> trials = search(features, samples, random);
+        System.out.printf("%d weight vectors tried in %.1f s%n", trials.size(), (System.nanoTime() - start) / 1e9);
+        Trial baseline = trials.get(0);
+        trials.sort((a, b) -> Double.compare(b.accuracy, a.accuracy));
+        System.out.printf("Estimated accuracy %.4f for the default weights %s%n", baseline.accuracy, baseline.weights);
+        for (int i = 0; i < Math.min(REPORTED, trials.size()); i++) {
+            System.out.printf("Estimated accuracy %.4f for %s%n", trials.get(i).accuracy, trials.get(i).weights);
+        }
+        return trials.get(0).weights;
+    }
+
+    // Extracts the features of every keystroke, a chunk of lines per worker
+    static List<Features> extract(SmartWordModel model, List<String> lines) {
+        List<Features> chunks = new ArrayList<>();
+        for (int start = 0; start < lines.size(); start += CHUNK_LINES) {
+            chunks.add(new Features(model, lines, start, Math.min(lines.size(), start + CHUNK_LINES)));
+        }
+        ForkJoinTask.invokeAll(chunks);
+        return chunks;
+    }
+
+    // Tries the default weights, first in the list, and samples more weight vectors around them
+    // Only ratios matter, so the frequency weight stays fixed and the other three are sampled log-uniformly
+    static List<Trial> search(List<Features> features, int samples, Random random) {
+        ScoringWeights defaults = ScoringWeights.DEFAULT;
+        List<Trial> trials = new ArrayList<>();
+        trials.add(new Trial(defaults, features));
+        for (int i = 1; i < samples; i++) {
+            trials.add(new Trial(new ScoringWeights(defaults.frequency, defaults.confirmed * spread(random),
+                    defaults.bigram * spread(random), defaults.trigram * spread(random)), features));
+        }
+        ForkJoinTask.invokeAll(trials);
+        return trials;
+    }
+
+    private static double spread(Random random) {
+        return Math.pow(2, (random.nextDouble() * 2 - 1) * SPREAD);
+    }
+
+    // Scores weights the way EvalSmartWord does: builds the model, types the new messages line by line
+    // with learning on, and prints the accuracy, CPU time per guess, peak heap and overall score.
+    // The time covers guessWord as a whole, so it includes the check of the guesses
+    static void evaluate(String wordFile, String oldMessageFile, String newMessageFile, ScoringWeights weights)
+            throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage(); // So an earlier run's peak does not count
+        }
+        SmartWord sw = new SmartWord(new SmartWordModel(wordFile, weights));
+        sw.processOldMessages(oldMessageFile);
+
+        GuessBatch batch = new GuessBatch();
+        long words = 0;
+        long guesses = 0;
+        double skipped = 0;
+        long elapsed = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(newMessageFile))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                long start = bean.getCurrentThreadCpuTime();
+                sw.guessLines(line, batch);
+                elapsed += bean.getCurrentThreadCpuTime() - start;
+                words += batch.words();
+                guesses += batch.keystrokes();
+                skipped += batch.skipped();
+                batch.clear();
+            }
+        }
+        double accuracy = skipped / words;
+        double averageTime = (elapsed / 1.0E9) / guesses;
+        long memory = peakMemoryUsage();
+        System.out.printf("Accuracy: %.4f%n", accuracy);
+        System.out.println("Average time per guess in seconds: " + new DecimalFormat("0.####E0").format(averageTime));
+        System.out.println("Used memory in bytes: " + memory);
+        System.out.printf("Overall Score: %.4f%n", accuracy * accuracy / Math.sqrt(averageTime * memory));
+    }
+
+    // Peak heap in use, over all heap pools, as EvalSmartWord measures it
+    private static long peakMemoryUsage() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                total += pool.getPeakUsage().getUsed();
+            }
+        }
+        return total;
+    }
+}
+// ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+// End of WeightTuner Class
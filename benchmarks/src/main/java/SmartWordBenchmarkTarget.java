@@ -0,0 +1,55 @@
+import benchmarks.SessionTarget;
+
+import java.io.IOException;
+
+// Adapter giving the benchmarks in the benchmarks package access to SmartWord
+public class SmartWordBenchmarkTarget implements SessionTarget {
+    private SmartWordModel model;
+    private SmartWord smartWord;
+
+    @Override
+    public void load(String wordFile) throws IOException {
+        model = new SmartWordModel(wordFile);
+        smartWord = new SmartWord(model);
+    }
+
+    @Override
+    public void processOldMessages(String oldMessageFile) throws IOException {
+        smartWord.processOldMessages(oldMessageFile);
+    }
+
+    @Override
+    public String[] guess(char letter, int letterPosition, int wordPosition) {
+        return smartWord.guess(letter, letterPosition, wordPosition);
+    }
+
+    @Override
+    public void feedback(boolean isCorrectGuess, String correctWord) {
+        smartWord.feedback(isCorrectGuess, correctWord);
+    }
+
+    @Override
+    public void stopLearning() {
+        smartWord = new SmartWord(model, false);
+    }
+
+    @Override
+    public void guess(char letter, int letterPosition, int wordPosition, String[] guesses) {
+        smartWord.guess(letter, letterPosition, wordPosition, guesses, 0);
+    }
+
+    @Override
+    public void pruneUnusedWords() {
+        smartWord.pruneUnusedWords();
+    }
+
+    @Override
+    public int cacheCapacity() {
+        return model.trie().suggestionCache().capacity();
+    }
+
+    @Override
+    public long cacheMisses() {
+        return model.trie().suggestionCache().misses();
+    }
+}
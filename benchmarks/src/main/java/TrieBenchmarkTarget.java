@@ -0,0 +1,46 @@
+import benchmarks.TrieTarget;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Adapter giving the benchmarks in the benchmarks package access to Trie
+public class TrieBenchmarkTarget implements TrieTarget {
+    private static final int TOP_CANDIDATES = 32; // As in SmartWordModel
+
+    private Trie trie;
+    private NGramModel ngrams;
+
+    @Override
+    public void load(String wordFile, String oldMessageFile, int cacheSize) throws IOException {
+        trie = new Trie(TOP_CANDIDATES, null, cacheSize);
+        ngrams = new NGramModel();
+        try (BufferedReader br = new BufferedReader(new FileReader(wordFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String word = TextNormalizer.word(line); // As in SmartWordModel
+                if (word != null && trie.wordId(word) < 0) {
+                    trie.insert(word);
+                }
+            }
+        }
+        new CorpusIngester(trie, ngrams).ingest(oldMessageFile);
+    }
+
+    @Override
+    public int insert(String word) {
+        return trie.insert(word);
+    }
+
+    @Override
+    public List<String> suggest(String prefix, int limit) {
+        return trie.getWeightedSuggestions(prefix, limit, -1, -1, ngrams);
+    }
+
+    @Override
+    public List<String> suggest(String prefix, int limit, int maxEdits) {
+        return trie.getFuzzySuggestions(prefix, limit, maxEdits, -1, -1, ngrams);
+    }
+}
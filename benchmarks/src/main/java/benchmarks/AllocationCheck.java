@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+// Fails with exit status 1 if the warmed guess loop of GuessBenchmark allocates anything
+// Run from this module after mvn -B package:
+//    java -cp target/benchmarks.jar benchmarks.AllocationCheck [inputDir] [corpus]
+// In the default configuration a lookup that misses the suggestion cache allocates the entry it
+// stores, and nothing else does. The check then replays the first keystrokes of the file, few
+// enough for the cache to hold every lookup, so a warmed pass only hits; it reports any misses
+// along with the bytes. With -Dsmartword.cacheSize=0 nothing is stored and it replays the whole file
+public class AllocationCheck {
+    private static final int CACHED_KEYSTROKES = 1000; // Lookups spread over the cache's segments, well within each
+    private static final int WARMUP_PASSES = 3; // Over the whole file, for the JIT
+    private static final int CACHED_WARMUP_PASSES = 20; // Over the keystrokes replayed, to fill the cache
+
+    public static void main(String[] args) throws Exception {
+        String inputDir = args.length > 0 ? args[0] : "../Input Files";
+        String corpus = args.length > 1 ? args[1] : "clinton";
+        SessionTarget session = SessionTarget.create();
+        session.load(Targets.file(inputDir, "words.txt"));
+        session.processOldMessages(Targets.file(inputDir, corpus + "_old.txt"));
+        session.stopLearning();
+        Keystrokes keystrokes = new Keystrokes(Targets.file(inputDir, corpus + "_new.txt"));
+        int replayed = session.cacheCapacity() > 0 ? Math.min(CACHED_KEYSTROKES, keystrokes.size()) : keystrokes.size();
+
+        String[] guesses = new String[3];
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            type(session, keystrokes, keystrokes.size(), guesses);
+        }
+        for (int pass = 0; pass < CACHED_WARMUP_PASSES; pass++) {
+            type(session, keystrokes, replayed, guesses);
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long misses = session.cacheMisses();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        type(session, keystrokes, replayed, guesses);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        misses = session.cacheMisses() - misses;
+
+        System.out.printf("%d guesses, cache of %d lookups missed %d times, %d bytes allocated%n",
+                replayed, session.cacheCapacity(), misses, allocated);
+        if (allocated > 0) {
+            System.err.println("The warmed guess loop allocated " + allocated + " bytes");
+            System.exit(1);
+        }
+    }
+
+    private static void type(SessionTarget session, Keystrokes keystrokes, int count, String[] guesses) {
+        for (int k = 0; k < count; k++) {
+            keystrokes.type(session, k, guesses);
+        }
+    }
+}
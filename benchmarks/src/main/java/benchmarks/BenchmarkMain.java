@@ -0,0 +1,23 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks named on the command line, all of them by default, with the GC profiler
+// on so every result reports its allocation rate (gc.alloc.rate.norm is bytes per operation)
+// Takes the usual JMH options, e.g. java -jar target/benchmarks.jar Suggest -p prefixLength=3
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions command = new CommandLineOptions(args);
+        if (command.shouldHelp() || command.shouldList() || command.shouldListProfilers()
+                || command.shouldListResultFormats() || command.shouldListWithParams()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        Options options = new OptionsBuilder().parent(command).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
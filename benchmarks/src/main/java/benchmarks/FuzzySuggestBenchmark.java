@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Trie.getFuzzySuggestions for mistyped prefixes of the words in a new message file
+// Each prefix has one letter after the first replaced by the next one in the alphabet, so most
+// miss the exact lookup and are answered by the edit distance walk; compare with SuggestBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FuzzySuggestBenchmark {
+    @Param("../Input Files")
+    public String inputDir;
+
+    @Param("clinton")
+    public String corpus;
+
+    @Param({"3", "5", "8"})
+    public int prefixLength;
+
+    @Param({"0", "1", "2"})
+    public int maxEdits;
+
+    private TrieTarget trie;
+    private String[] prefixes;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        trie = TrieTarget.create();
+        trie.load(Targets.file(inputDir, "words.txt"), Targets.file(inputDir, corpus + "_old.txt"), 0);
+
+        // In the order they are first typed, each prefix once
+        Set<String> seen = new LinkedHashSet<>();
+        for (String[] line : Targets.lines(Targets.file(inputDir, corpus + "_new.txt"))) {
+            for (String word : line) {
+                if (word.length() >= prefixLength) {
+                    char[] prefix = word.substring(0, prefixLength).toLowerCase().toCharArray();
+                    int at = 1 + seen.size() % (prefixLength - 1);
+                    prefix[at] = prefix[at] == 'z' ? 'a' : (char) (prefix[at] + 1);
+                    seen.add(new String(prefix));
+                }
+            }
+        }
+        prefixes = new ArrayList<>(seen).toArray(new String[0]);
+    }
+
+    @Benchmark
+    public List<String> suggest() {
+        String prefix = prefixes[next];
+        next = next + 1 == prefixes.length ? 0 : next + 1;
+        return trie.suggest(prefix, 3, maxEdits);
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One SmartWord.guess into a reused array per operation, typing a new message file over and over
+// on a session that does not learn, so the model stays the same and the loop reaches a steady state.
+// The fork runs without the suggestion cache, whose stores are the only allocation left on the
+// path, so gc.alloc.rate.norm should read 0 bytes; add -jvmArgsAppend -Dsmartword.cacheSize=4096
+// to measure with it. AllocationCheck fails outright when the same loop allocates
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsmartword.cacheSize=0")
+@State(Scope.Benchmark)
+public class GuessBenchmark {
+    @Param("../Input Files")
+    public String inputDir;
+
+    @Param("clinton")
+    public String corpus;
+
+    private SessionTarget smartWord;
+    private final String[] guesses = new String[3];
+    private Keystrokes keystrokes;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        smartWord = SessionTarget.create();
+        smartWord.load(Targets.file(inputDir, "words.txt"));
+        smartWord.processOldMessages(Targets.file(inputDir, corpus + "_old.txt"));
+        smartWord.stopLearning();
+        keystrokes = new Keystrokes(Targets.file(inputDir, corpus + "_new.txt"));
+    }
+
+    @Benchmark
+    public String[] guess() {
+        int k = next;
+        next = k + 1 == keystrokes.size() ? 0 : k + 1;
+        keystrokes.type(smartWord, k, guesses);
+        return guesses;
+    }
+}
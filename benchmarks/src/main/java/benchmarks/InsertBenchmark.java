@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Trie.insert of the words of a new message file, in the order they are typed, into a Trie
+// loaded with the word file and old messages, the way feedback inserts them
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+    @Param("../Input Files")
+    public String inputDir;
+
+    @Param("clinton")
+    public String corpus;
+
+    @Param("4096")
+    public int cacheSize;
+
+    private TrieTarget trie;
+    private String[] words;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        trie = TrieTarget.create();
+        trie.load(Targets.file(inputDir, "words.txt"), Targets.file(inputDir, corpus + "_old.txt"), cacheSize);
+
+        List<String> typed = new ArrayList<>();
+        for (String[] line : Targets.lines(Targets.file(inputDir, corpus + "_new.txt"))) {
+            for (String word : line) {
+                if (!word.isEmpty()) {
+                    typed.add(word.toLowerCase());
+                }
+            }
+        }
+        words = typed.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public int insert() {
+        String word = words[next];
+        next = next + 1 == words.length ? 0 : next + 1;
+        return trie.insert(word);
+    }
+}
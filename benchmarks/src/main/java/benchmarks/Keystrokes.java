@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The keystrokes of a message file in order, each letter of each word lower case, the way
+// EvalSmartWord types a file when no guess is ever right
+final class Keystrokes {
+    private final char[] letters;
+    private final int[] letterPositions;
+    private final int[] wordPositions;
+    private final String[] finished; // Word the keystroke finishes, lower case, null within a word
+
+    Keystrokes(String file) {
+        List<String> words = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (String[] line : Targets.lines(file)) {
+            for (int wordPosition = 0; wordPosition < line.length; wordPosition++) {
+                if (!line[wordPosition].isEmpty()) {
+                    words.add(line[wordPosition].toLowerCase());
+                    positions.add(wordPosition);
+                }
+            }
+        }
+        int keystrokes = 0;
+        for (String word : words) {
+            keystrokes += word.length();
+        }
+        letters = new char[keystrokes];
+        letterPositions = new int[keystrokes];
+        wordPositions = new int[keystrokes];
+        finished = new String[keystrokes];
+        int k = 0;
+        for (int w = 0; w < words.size(); w++) {
+            String word = words.get(w);
+            for (int i = 0; i < word.length(); i++, k++) {
+                letters[k] = word.charAt(i);
+                letterPositions[k] = i;
+                wordPositions[k] = positions.get(w);
+            }
+            finished[k - 1] = word;
+        }
+    }
+
+    int size() {
+        return letters.length;
+    }
+
+    // Types keystroke k into the guesses array, then gives feedback if it finishes a word
+    void type(SessionTarget session, int k, String[] guesses) {
+        session.guess(letters[k], letterPositions[k], wordPositions[k], guesses);
+        if (finished[k] != null) {
+            session.feedback(false, finished[k]);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// SmartWord.pruneUnusedWords on a model loaded with the word file and old messages
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PruneBenchmark {
+    @Param("../Input Files")
+    public String inputDir;
+
+    @Param("clinton")
+    public String corpus;
+
+    private SessionTarget smartWord;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        smartWord = SessionTarget.create();
+        smartWord.load(Targets.file(inputDir, "words.txt"));
+        smartWord.processOldMessages(Targets.file(inputDir, corpus + "_old.txt"));
+    }
+
+    @Benchmark
+    public void pruneUnusedWords() {
+        smartWord.pruneUnusedWords();
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// SmartWord.guess and feedback over a whole new message file, driven exactly like EvalSmartWord
+// Each iteration replays the file once against a freshly loaded model, since feedback changes it
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplayBenchmark {
+    @Param("../Input Files")
+    public String inputDir;
+
+    @Param({"clinton", "trump"})
+    public String corpus;
+
+    private List<String[]> lines;
+    private SessionTarget smartWord;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        lines = Targets.lines(Targets.file(inputDir, corpus + "_new.txt"));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws Exception {
+        smartWord = SessionTarget.create();
+        smartWord.load(Targets.file(inputDir, "words.txt"));
+        smartWord.processOldMessages(Targets.file(inputDir, corpus + "_old.txt"));
+    }
+
+    // Returns the number of words guessed before their last letter
+    @Benchmark
+    public int replay() {
+        int guessed = 0;
+        for (String[] words : lines) {
+            for (int wordPosition = 0; wordPosition < words.length; wordPosition++) {
+                String word = words[wordPosition];
+                boolean isCorrectGuess = false;
+                for (int letterPosition = 0; letterPosition < word.length() && !isCorrectGuess; letterPosition++) {
+                    String[] guesses = smartWord.guess(word.charAt(letterPosition), letterPosition, wordPosition);
+                    String correctGuess = null;
+                    for (int i = 0; i < 3; i++) {
+                        if (word.equalsIgnoreCase(guesses[i])) {
+                            isCorrectGuess = true;
+                            correctGuess = guesses[i];
+                            break;
+                        }
+                    }
+                    if (letterPosition == word.length() - 1) {
+                        smartWord.feedback(isCorrectGuess, word);
+                    } else {
+                        smartWord.feedback(isCorrectGuess, correctGuess);
+                        if (isCorrectGuess) {
+                            guessed++;
+                        }
+                    }
+                }
+            }
+        }
+        return guessed;
+    }
+}
@@ -0,0 +1,33 @@
+package benchmarks;
+
+import java.io.IOException;
+
+// The SmartWord calls the benchmarks measure, see TrieTarget for why this is an interface
+public interface SessionTarget {
+    // Starts a fresh model from a word file, with one session on it
+    void load(String wordFile) throws IOException;
+
+    void processOldMessages(String oldMessageFile) throws IOException;
+
+    String[] guess(char letter, int letterPosition, int wordPosition);
+
+    void feedback(boolean isCorrectGuess, String correctWord);
+
+    // Swaps the session for one on the same model that does not learn from feedback
+    void stopLearning();
+
+    // Same as guess, writing the guesses into the array instead of a new one
+    void guess(char letter, int letterPosition, int wordPosition, String[] guesses);
+
+    void pruneUnusedWords();
+
+    // Lookups the model's suggestion cache holds, 0 when it is disabled
+    int cacheCapacity();
+
+    // Lookups the cache could not answer so far
+    long cacheMisses();
+
+    static SessionTarget create() {
+        return Targets.create(SessionTarget.class, "SmartWordBenchmarkTarget");
+    }
+}
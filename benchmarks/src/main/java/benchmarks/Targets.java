@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Shared setup for the benchmarks: creating the adapters and reading the Input Files corpora
+final class Targets {
+    private Targets() {
+    }
+
+    // Instantiates a default-package adapter by name; calls through the interface are inlined
+    // once the JIT sees the single implementation, so they cost nothing in the measurements
+    static <T> T create(Class<T> type, String adapter) {
+        try {
+            return type.cast(Class.forName(adapter).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create " + adapter, e);
+        }
+    }
+
+    static String file(String inputDir, String name) {
+        return Paths.get(inputDir, name).toString();
+    }
+
+    // Splits each line of a message file into words the way EvalSmartWord does
+    static List<String[]> lines(String file) {
+        try {
+            List<String[]> lines = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(file))) {
+                String[] words = line.replaceAll("\\s+", " ").split(" ");
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = words[i].replaceAll("[^a-zA-Z]", "");
+                }
+                lines.add(words);
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+
+// The Trie operations the benchmarks measure
+// The Trie lives in the default package, which a named package cannot import, so the benchmarks
+// reach it through this interface and an adapter compiled next to it
+public interface TrieTarget {
+    // Loads the word file and old messages into a fresh Trie, with a suggestion cache of cacheSize
+    void load(String wordFile, String oldMessageFile, int cacheSize) throws IOException;
+
+    int insert(String word);
+
+    // Suggestions for a prefix with no context words
+    List<String> suggest(String prefix, int limit);
+
+    // Same, adding words up to maxEdits edits away when there are too few
+    List<String> suggest(String prefix, int limit, int maxEdits);
+
+    static TrieTarget create() {
+        return Targets.create(TrieTarget.class, "TrieBenchmarkTarget");
+    }
+}